@@ -0,0 +1,115 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.internal.io.IOUtils;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link UfileBlobStore} wired the way the plugin wires it, pointed at a {@link UfileStandInServer}.
+ */
+final class BenchmarkBlobStore implements Closeable {
+
+    private final UfileRepositoryPlugin plugin;
+    private final ThreadPool threadPool;
+    private final UfileBlobStore blobStore;
+    private final Path journalPath;
+
+    /**
+     * @param repositorySettings repository settings on top of the connection to the stand-in
+     */
+    BenchmarkBlobStore(UfileStandInServer server, Settings repositorySettings) throws IOException {
+        Settings nodeSettings = Settings.builder().put("node.name", "ufile-benchmark").build();
+        this.plugin = new UfileRepositoryPlugin(nodeSettings);
+        this.threadPool = new ThreadPool(nodeSettings,
+                plugin.getExecutorBuilders(nodeSettings).toArray(new ExecutorBuilder<?>[0]));
+        Settings settings = Settings.builder()
+                .put(UfileClientSettings.ENDPOINT.getKey(), server.endpoint())
+                .put(UfileClientSettings.PUBLIC_KEY.getKey(), "benchmark")
+                .put(UfileClientSettings.PRIVATE_KEY.getKey(), "benchmark")
+                .put(UfileClientSettings.BUCKET.getKey(), "bench")
+                .put(repositorySettings)
+                .build();
+        RepositoryMetaData metadata = new RepositoryMetaData("benchmark", UfileRepository.TYPE, settings);
+        this.journalPath = Files.createTempDirectory("ufile-benchmark-journal");
+        UfileService service = new UfileServiceImpl(nodeSettings, metadata, journalPath, new UfileClientRegistry(),
+                new UfileStatsRegistry(), threadPool);
+        this.blobStore = new UfileBlobStore(nodeSettings, metadata, "bench", service, null, threadPool);
+    }
+
+    BlobContainer container(String path) {
+        return blobStore.blobContainer(new BlobPath().add(path));
+    }
+
+    void deletePath(String path) throws IOException {
+        blobStore.delete(new BlobPath().add(path));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            blobStore.close();
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+            //与节点关闭时一样关闭插件
+            IOUtils.close(plugin, () -> IOUtils.rm(journalPath));
+        }
+    }
+
+    /**
+     * Reads a stream to its end and returns the number of bytes read.
+     */
+    static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 << 10];
+        long total = 0;
+        try (InputStream stream = in) {
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * A stream of {@code length} zero bytes, for uploads larger than the heap.
+     */
+    static final class ZeroInputStream extends InputStream {
+        private long remaining;
+
+        ZeroInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 0);
+            remaining -= n;
+            return n;
+        }
+    }
+}
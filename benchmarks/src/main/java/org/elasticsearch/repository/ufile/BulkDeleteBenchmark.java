@@ -0,0 +1,85 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deleting the blobs of a snapshot, by name and by path, as snapshot deletion and cleanup do.
+ */
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class BulkDeleteBenchmark {
+
+    @Param({"10000"})
+    public int blobCount;
+
+    @Param({"5"})
+    public long latencyMillis;
+
+    @Param({"1", "16", "64"})
+    public int maxConcurrentDeletes;
+
+    private UfileStandInServer server;
+    private BenchmarkBlobStore store;
+    private BlobContainer container;
+    private List<String> blobNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new UfileStandInServer(latencyMillis, 0, false);
+        store = new BenchmarkBlobStore(server, Settings.builder()
+                .put(UfileClientSettings.MAX_CONCURRENT_DELETES.getKey(), maxConcurrentDeletes)
+                .build());
+        container = store.container("delete");
+        blobNames = new ArrayList<>(blobCount);
+        for (int i = 0; i < blobCount; i++) {
+            blobNames.add(String.format(Locale.ROOT, "__%09d", i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void populate() {
+        for (String blobName : blobNames) {
+            server.putSynthetic("delete/" + blobName, 1024);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void deleteByName() throws IOException {
+        container.deleteBlobsIgnoringIfNotExists(blobNames);
+    }
+
+    @Benchmark
+    public void deletePath() throws IOException {
+        store.deletePath("delete");
+    }
+}
@@ -0,0 +1,76 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing a container that holds a very large number of blobs, as the shard directories of a long
+ * lived repository do.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ListingBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int blobCount;
+
+    @Param({"0", "10"})
+    public long latencyMillis;
+
+    @Param({"1000"})
+    public int listPageSize;
+
+    private UfileStandInServer server;
+    private BenchmarkBlobStore store;
+    private BlobContainer container;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new UfileStandInServer(latencyMillis, 0, false);
+        store = new BenchmarkBlobStore(server, Settings.builder()
+                .put(UfileClientSettings.LIST_PAGE_SIZE.getKey(), listPageSize)
+                .build());
+        container = store.container("listing");
+        for (int i = 0; i < blobCount; i++) {
+            server.putSynthetic(String.format(Locale.ROOT, "listing/__%09d", i), 1024);
+        }
+        server.putSynthetic("listing/index-0", 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int listAll() throws IOException {
+        return container.listBlobs().size();
+    }
+
+    @Benchmark
+    public int listByPrefix() throws IOException {
+        return container.listBlobsByPrefix("index-").size();
+    }
+}
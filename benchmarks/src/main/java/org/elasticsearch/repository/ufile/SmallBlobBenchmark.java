@@ -0,0 +1,94 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of single small-blob operations, the bulk of the requests of a snapshot of many small
+ * shards: metadata and index files, {@code snap-*.dat} and small segment files.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Threads(4)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class SmallBlobBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int blobSize;
+
+    /** Round trip time added by the stand-in to every request. */
+    @Param({"0", "5"})
+    public long latencyMillis;
+
+    @Param({"false", "true"})
+    public boolean metadataCache;
+
+    private UfileStandInServer server;
+    private BenchmarkBlobStore store;
+    private BlobContainer container;
+    private byte[] content;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new UfileStandInServer(latencyMillis, 0, true);
+        store = new BenchmarkBlobStore(server, Settings.builder()
+                .put(UfileClientSettings.METADATA_CACHE_ENABLED.getKey(), metadataCache)
+                .build());
+        container = store.container("small");
+        content = new byte[blobSize];
+        new Random(0).nextBytes(content);
+        container.writeBlob("meta-read.dat", new ByteArrayInputStream(content), blobSize, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        container.writeBlob("blob-" + counter.incrementAndGet(), new ByteArrayInputStream(content), blobSize, false);
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        return BenchmarkBlobStore.drain(container.readBlob("meta-read.dat"));
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return container.blobExists("meta-read.dat");
+    }
+
+    @Benchmark
+    public void writeAndDelete() throws IOException {
+        String blobName = "tmp-" + counter.incrementAndGet();
+        container.writeBlob(blobName, new ByteArrayInputStream(content), blobSize, false);
+        container.deleteBlob(blobName);
+    }
+}
@@ -0,0 +1,83 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.blobstore.BlobContainer;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to upload and download one large blob, e.g. a merged segment file, through multipart uploads
+ * and parallel range downloads. The stand-in only keeps object lengths, so blobs may exceed the heap.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class StreamingBenchmark {
+
+    @Param({"256mb", "2gb"})
+    public String blobSize;
+
+    /** Number of parts uploaded and ranges downloaded concurrently. */
+    @Param({"1", "4", "16"})
+    public int concurrency;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    /** Bandwidth of a single connection, {@code 0b} for unlimited. */
+    @Param({"0b", "50mb"})
+    public String connectionBandwidth;
+
+    private UfileStandInServer server;
+    private BenchmarkBlobStore store;
+    private BlobContainer container;
+    private long size;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        size = ByteSizeValue.parseBytesSizeValue(blobSize, "blob_size").getBytes();
+        long bandwidth = ByteSizeValue.parseBytesSizeValue(connectionBandwidth, "connection_bandwidth").getBytes();
+        server = new UfileStandInServer(latencyMillis, bandwidth, false);
+        store = new BenchmarkBlobStore(server, Settings.builder()
+                .put(UfileClientSettings.MAX_CONCURRENT_PARTS.getKey(), concurrency)
+                .put(UfileClientSettings.MAX_CONCURRENT_RANGES.getKey(), concurrency)
+                .put(UfileClientSettings.UPLOAD_JOURNAL.getKey(), false)
+                .build());
+        container = store.container("stream");
+        server.putSynthetic("stream/__source", size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void upload() throws IOException {
+        container.writeBlob("__upload", new BenchmarkBlobStore.ZeroInputStream(size), size, false);
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        return BenchmarkBlobStore.drain(container.readBlob("__source"));
+    }
+}
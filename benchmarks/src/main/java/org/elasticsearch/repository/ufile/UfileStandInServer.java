@@ -0,0 +1,459 @@
+package org.elasticsearch.repository.ufile;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the UFile object API of a single bucket, served over plain HTTP on the
+ * loopback interface. It answers the requests the plugin sends: put, head, (ranged) get, delete,
+ * prefix listing, multipart init/part/finish/abort, rename and copy.
+ * <p>
+ * Every request is delayed by a fixed latency and every body is sent or received at a limited
+ * bandwidth per connection. Without {@code storeContent} only the length of each object is kept and
+ * reads return zeros, so that multi-GB objects do not need to fit on the heap. ETags are computed the
+ * way UFile computes them, from the received data for uploads and from the served data for reads, so
+ * that checksum verification passes.
+ */
+public final class UfileStandInServer implements Closeable {
+
+    //分片大小与ufile一致
+    static final int BLOCK_SIZE = 4 << 20;
+    private static final Map<Long, String> ZERO_ETAGS = new ConcurrentHashMap<>();
+    private static final int COPY_BUFFER_SIZE = 64 << 10;
+    private static final Gson GSON = new Gson();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final long bytesPerSec;
+    private final boolean storeContent;
+    private final NavigableMap<String, Blob> blobs = new ConcurrentSkipListMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * @param latencyMillis delay before every response
+     * @param bytesPerSec   bandwidth of every request and response body, {@code 0} for unlimited
+     * @param storeContent  whether to keep the content of the objects or only their length
+     */
+    public UfileStandInServer(long latencyMillis, long bytesPerSec, boolean storeContent) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSec = bytesPerSec;
+        this.storeContent = storeContent;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * The value of the repository's {@code endpoint} setting that points at this server.
+     */
+    public String endpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    public int blobCount() {
+        return blobs.size();
+    }
+
+    /**
+     * Adds an object of the given length without going through HTTP, e.g. to prepare a large listing.
+     */
+    public void putSynthetic(String key, long length) {
+        blobs.put(key, new Blob(null, length, null));
+    }
+
+    public void clear() {
+        blobs.clear();
+        uploads.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String key = decode(exchange.getRequestURI().getRawPath().substring(1));
+            Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            if ("GET".equals(method) && key.isEmpty() && params.containsKey("list")) {
+                list(exchange, params);
+            } else if ("POST".equals(method) && params.containsKey("uploads")) {
+                initUpload(exchange, key);
+            } else if ("PUT".equals(method) && params.containsKey("uploadId")) {
+                uploadPart(exchange, params);
+            } else if ("POST".equals(method) && params.containsKey("uploadId")) {
+                finishUpload(exchange, key, params);
+            } else if ("DELETE".equals(method) && params.containsKey("uploadId")) {
+                uploads.remove(params.get("uploadId"));
+                send(exchange, 204, null);
+            } else if ("PUT".equals(method) && params.containsKey("newFileName")) {
+                rename(exchange, key, params);
+            } else if ("PUT".equals(method) && exchange.getRequestHeaders().containsKey("X-Ufile-Copy-Source")) {
+                copy(exchange, key);
+            } else if ("PUT".equals(method)) {
+                Blob blob = receive(exchange);
+                blobs.put(key, blob);
+                exchange.getResponseHeaders().set("ETag", quote(blob.receivedEtag));
+                send(exchange, 200, null);
+            } else if ("HEAD".equals(method)) {
+                head(exchange, key);
+            } else if ("GET".equals(method)) {
+                get(exchange, key);
+            } else if ("DELETE".equals(method)) {
+                if (blobs.remove(key) == null) {
+                    error(exchange, 404, "file not exist");
+                } else {
+                    send(exchange, 204, null);
+                }
+            } else {
+                error(exchange, 400, "unsupported request");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(exchange, 503, "server is shutting down");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void list(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String prefix = params.getOrDefault("prefix", "");
+        String marker = params.getOrDefault("marker", "");
+        int limit = Integer.parseInt(params.getOrDefault("limit", "1000"));
+        List<Map<String, Object>> dataSet = new ArrayList<>();
+        String from = marker.compareTo(prefix) > 0 ? marker : prefix;
+        String nextMarker = "";
+        //marker本身已在上一页返回
+        for (Map.Entry<String, Blob> entry : blobs.tailMap(from, from.equals(marker) == false).entrySet()) {
+            if (entry.getKey().startsWith(prefix) == false) {
+                break;
+            }
+            if (dataSet.size() == limit) {
+                nextMarker = dataSet.get(dataSet.size() - 1).get("FileName").toString();
+                break;
+            }
+            Map<String, Object> object = new LinkedHashMap<>();
+            object.put("BucketName", "bench");
+            object.put("FileName", entry.getKey());
+            object.put("Hash", entry.getValue().etag);
+            object.put("MimeType", "application/octet-stream");
+            object.put("Size", entry.getValue().length);
+            object.put("CreateTime", 0);
+            object.put("ModifyTime", 0);
+            dataSet.add(object);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("BucketName", "bench");
+        response.put("BucketId", "bench");
+        response.put("NextMarker", nextMarker);
+        response.put("DataSet", dataSet);
+        sendJson(exchange, 200, response);
+    }
+
+    private void initUpload(HttpExchange exchange, String key) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new Upload());
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("UploadId", uploadId);
+        response.put("BlkSize", BLOCK_SIZE);
+        response.put("Bucket", "bench");
+        response.put("Key", key);
+        sendJson(exchange, 200, response);
+    }
+
+    private void uploadPart(HttpExchange exchange, Map<String, String> params) throws IOException {
+        Upload upload = uploads.get(params.get("uploadId"));
+        if (upload == null) {
+            drain(exchange.getRequestBody());
+            error(exchange, 404, "upload not found");
+            return;
+        }
+        int partNumber = Integer.parseInt(params.get("partNumber"));
+        Blob part = receive(exchange);
+        upload.parts.put(partNumber, part);
+        exchange.getResponseHeaders().set("ETag", quote(part.receivedEtag));
+        sendJson(exchange, 200, Collections.singletonMap("PartNumber", partNumber));
+    }
+
+    private void finishUpload(HttpExchange exchange, String key, Map<String, String> params) throws IOException {
+        drain(exchange.getRequestBody());
+        Upload upload = uploads.remove(params.get("uploadId"));
+        if (upload == null) {
+            error(exchange, 404, "upload not found");
+            return;
+        }
+        long length = 0;
+        ByteArrayOutputStream content = storeContent ? new ByteArrayOutputStream() : null;
+        for (Blob part : upload.parts.values()) {
+            length += part.length;
+            if (content != null) {
+                content.write(part.content);
+            }
+        }
+        String finalKey = params.getOrDefault("newKey", key);
+        Blob blob = new Blob(content == null ? null : content.toByteArray(), length, null);
+        blobs.put(finalKey, blob);
+        exchange.getResponseHeaders().set("ETag", quote(blob.etag));
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("Bucket", "bench");
+        response.put("Key", finalKey);
+        response.put("FileSize", length);
+        sendJson(exchange, 200, response);
+    }
+
+    private void rename(HttpExchange exchange, String key, Map<String, String> params) throws IOException {
+        String target = params.get("newFileName");
+        boolean force = "true".equals(params.get("force"));
+        Blob blob = blobs.get(key);
+        if (blob == null) {
+            error(exchange, 404, "file not exist");
+            return;
+        }
+        if (force == false && blobs.putIfAbsent(target, blob) != null) {
+            error(exchange, 409, "file already exists");
+            return;
+        }
+        blobs.put(target, blob);
+        blobs.remove(key, blob);
+        send(exchange, 200, null);
+    }
+
+    private void copy(HttpExchange exchange, String key) throws IOException {
+        String source = decode(exchange.getRequestHeaders().getFirst("X-Ufile-Copy-Source"));
+        //格式为 /bucket/key
+        String sourceKey = source.substring(source.indexOf('/', 1) + 1);
+        Blob blob = blobs.get(sourceKey);
+        if (blob == null) {
+            error(exchange, 404, "file not exist");
+            return;
+        }
+        blobs.put(key, blob);
+        send(exchange, 200, null);
+    }
+
+    private void head(HttpExchange exchange, String key) throws IOException {
+        Blob blob = blobs.get(key);
+        if (blob == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("Content-Length", Long.toString(blob.length));
+        exchange.getResponseHeaders().set("ETag", quote(blob.etag));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void get(HttpExchange exchange, String key) throws IOException {
+        Blob blob = blobs.get(key);
+        if (blob == null) {
+            error(exchange, 404, "file not exist");
+            return;
+        }
+        long start = 0;
+        long end = blob.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            if (bounds.length > 1 && bounds[1].isEmpty() == false) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            if (start > end) {
+                error(exchange, 416, "invalid range");
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + blob.length);
+        }
+        long length = end - start + 1;
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("ETag", quote(blob.etag));
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length == 0) {
+            return;
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long startNanos = System.nanoTime();
+            long sent = 0;
+            while (sent < length) {
+                int n = (int) Math.min(buffer.length, length - sent);
+                if (blob.content != null) {
+                    System.arraycopy(blob.content, (int) (start + sent), buffer, 0, n);
+                }
+                out.write(buffer, 0, n);
+                sent += n;
+                throttle(startNanos, sent);
+            }
+        }
+    }
+
+    //读取请求体，storeContent为false时只记录长度。与ufile一样对收到的数据计算etag并在响应中返回
+    private Blob receive(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream content = storeContent ? new ByteArrayOutputStream() : null;
+        UfileEtag received = new UfileEtag();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long startNanos = System.nanoTime();
+        long length = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (content != null) {
+                content.write(buffer, 0, n);
+            }
+            received.update(buffer, 0, n);
+            length += n;
+            throttle(startNanos, length);
+        }
+        return new Blob(content == null ? null : content.toByteArray(), length, received.etag());
+    }
+
+    //按带宽限制计算已传输字节应耗费的时间，不足则等待
+    private void throttle(long startNanos, long transferred) throws IOException {
+        if (bytesPerSec <= 0) {
+            return;
+        }
+        long expectedNanos = transferred * TimeUnit.SECONDS.toNanos(1) / bytesPerSec;
+        long waitNanos = expectedNanos - (System.nanoTime() - startNanos);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", e);
+            }
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        while (in.read(buffer) != -1) {
+            // 丢弃
+        }
+    }
+
+    //ufile的错误响应，sdk从中解析出RetCode和ErrMsg
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("RetCode", -status);
+        response.put("ErrMsg", message);
+        sendJson(exchange, status, response);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Object response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, status, GSON.toJson(response).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq < 0) {
+                params.put(decode(param), "");
+            } else {
+                params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    //不保存内容时读取返回全零，etag按全零数据计算；同一长度只计算一次
+    private static String zeroEtag(long length) {
+        return ZERO_ETAGS.computeIfAbsent(length, len -> {
+            UfileEtag etag = new UfileEtag();
+            byte[] zeros = new byte[COPY_BUFFER_SIZE];
+            for (long remaining = len; remaining > 0; remaining -= zeros.length) {
+                etag.update(zeros, 0, (int) Math.min(zeros.length, remaining));
+            }
+            return etag.etag();
+        });
+    }
+
+    private static final class Blob {
+        private final byte[] content;
+        private final long length;
+        //读取时返回的数据的etag
+        private final String etag;
+        //上传时收到的数据的etag，不保存内容时与etag不同
+        private final String receivedEtag;
+
+        private Blob(byte[] content, long length, String receivedEtag) {
+            this.content = content;
+            this.length = length;
+            this.etag = content != null ? UfileEtag.of(content, 0, content.length) : zeroEtag(length);
+            this.receivedEtag = receivedEtag;
+        }
+    }
+
+    private static final class Upload {
+        private final NavigableMap<Integer, Blob> parts = new ConcurrentSkipListMap<>();
+    }
+}
@@ -0,0 +1,68 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Returns the request statistics of the UFile repositories on the node that receives the request:
+ * {@code GET /_ufile/stats} for all repositories, {@code GET /_ufile/stats/{repository}} for one.
+ */
+public class RestUfileStatsAction extends BaseRestHandler {
+
+    private final String nodeName;
+    private final UfileStatsRegistry statsRegistry;
+
+    RestUfileStatsAction(Settings settings, RestController controller, UfileStatsRegistry statsRegistry) {
+        super(settings);
+        this.nodeName = Node.NODE_NAME_SETTING.get(settings);
+        this.statsRegistry = statsRegistry;
+        controller.registerHandler(GET, "/_ufile/stats", this);
+        controller.registerHandler(GET, "/_ufile/stats/{repository}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "ufile_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String repository = request.param("repository");
+        return channel -> {
+            Collection<UfileStats> stats;
+            if (repository == null) {
+                stats = statsRegistry.all().values();
+            } else {
+                UfileStats repositoryStats = statsRegistry.get(repository);
+                if (repositoryStats == null) {
+                    channel.sendResponse(new BytesRestResponse(RestStatus.NOT_FOUND, BytesRestResponse.TEXT_CONTENT_TYPE,
+                            "ufile repository [" + repository + "] is not open on node [" + nodeName + "]"));
+                    return;
+                }
+                stats = Collections.singletonList(repositoryStats);
+            }
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("node", nodeName);
+            builder.startObject("repositories");
+            for (UfileStats repositoryStats : stats) {
+                repositoryStats.toXContent(builder, request);
+            }
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
@@ -27,6 +27,15 @@ final class SocketAccess {
         }
     }
 
+    public static <T> T doPrivilegedException(PrivilegedExceptionAction<T> operation) throws Exception {
+        SpecialPermission.check();
+        try {
+            return AccessController.doPrivileged(operation);
+        } catch (PrivilegedActionException e) {
+            throw e.getException();
+        }
+    }
+
     public static void doPrivilegedVoid(Runnable action) {
         SpecialPermission.check();
         AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
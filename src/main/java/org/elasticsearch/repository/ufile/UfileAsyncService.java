@@ -0,0 +1,32 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.bean.DownloadStreamBean;
+import cn.ucloud.ufile.bean.ObjectListBean;
+import cn.ucloud.ufile.bean.ObjectProfile;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link UfileService}. Every call returns immediately and runs on the
+ * plugin's {@code ufile} thread pool; failures complete the future exceptionally with the same
+ * exception the blocking call would have thrown.
+ */
+public interface UfileAsyncService {
+
+    CompletableFuture<Boolean> doesObjectExist(String bucketName, String key);
+
+    CompletableFuture<ObjectProfile> getObjectProfile(String bucketName, String key);
+
+    CompletableFuture<ObjectListBean> listObjects(String bucketName, String prefix, String marker);
+
+    CompletableFuture<DownloadStreamBean> getObject(String bucketName, String key);
+
+    CompletableFuture<DownloadStreamBean> getObject(String bucketName, String key, long start, long end);
+
+    CompletableFuture<Void> putObject(String bucketName, String key, InputStream input, long blobSize);
+
+    CompletableFuture<Void> putObject(String bucketName, String key, byte[] data);
+
+    CompletableFuture<Void> deleteObject(String bucketName, String key);
+}
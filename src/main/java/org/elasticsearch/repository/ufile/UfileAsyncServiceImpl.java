@@ -0,0 +1,90 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.bean.DownloadStreamBean;
+import cn.ucloud.ufile.bean.ObjectListBean;
+import cn.ucloud.ufile.bean.ObjectProfile;
+
+import java.io.InputStream;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the calls of a blocking {@link UfileService} on an executor.
+ */
+public class UfileAsyncServiceImpl implements UfileAsyncService {
+
+    private final UfileService service;
+    private final ExecutorService executor;
+
+    public UfileAsyncServiceImpl(UfileService service, ExecutorService executor) {
+        this.service = service;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> doesObjectExist(String bucketName, String key) {
+        return submit(() -> service.doesObjectExist(bucketName, key));
+    }
+
+    @Override
+    public CompletableFuture<ObjectProfile> getObjectProfile(String bucketName, String key) {
+        return submit(() -> service.getObjectProfile(bucketName, key));
+    }
+
+    @Override
+    public CompletableFuture<ObjectListBean> listObjects(String bucketName, String prefix, String marker) {
+        return submit(() -> service.listObjects(bucketName, prefix, marker));
+    }
+
+    @Override
+    public CompletableFuture<DownloadStreamBean> getObject(String bucketName, String key) {
+        return submit(() -> service.getObject(bucketName, key));
+    }
+
+    @Override
+    public CompletableFuture<DownloadStreamBean> getObject(String bucketName, String key, long start, long end) {
+        return submit(() -> service.getObject(bucketName, key, start, end));
+    }
+
+    @Override
+    public CompletableFuture<Void> putObject(String bucketName, String key, InputStream input, long blobSize) {
+        return submit(() -> {
+            service.putObject(bucketName, key, input, blobSize);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putObject(String bucketName, String key, byte[] data) {
+        return submit(() -> {
+            service.putObject(bucketName, key, data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteObject(String bucketName, String key) {
+        return submit(() -> {
+            service.deleteObject(bucketName, key);
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(PrivilegedExceptionAction<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(SocketAccess.doPrivilegedException(call));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
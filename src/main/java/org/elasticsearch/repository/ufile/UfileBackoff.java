@@ -0,0 +1,32 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: the n-th retry waits a random time between zero and
+ * {@code min(maxDelay, baseDelay * 2^n)}, so that parts failing together do not retry in lockstep.
+ */
+final class UfileBackoff {
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    UfileBackoff(TimeValue baseDelay, TimeValue maxDelay) {
+        this.baseDelayMillis = Math.max(1, baseDelay.millis());
+        this.maxDelayMillis = Math.max(baseDelayMillis, maxDelay.millis());
+    }
+
+    long delayMillis(int attempt) {
+        long cap = attempt >= 30 ? maxDelayMillis : Math.min(maxDelayMillis, baseDelayMillis << attempt);
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Sleeps before the given (zero based) retry attempt.
+     */
+    void pause(int attempt) throws InterruptedException {
+        Thread.sleep(delayMillis(attempt));
+    }
+}
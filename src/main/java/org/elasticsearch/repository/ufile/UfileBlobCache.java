@@ -0,0 +1,94 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.regex.Pattern;
+
+/**
+ * Node-local cache of object existence, size and the contents of small blobs. Only blobs that the
+ * snapshot format never rewrites in place are cached, see {@link #isCacheable(String)}; mutable blobs
+ * such as {@code index.latest} always go to UFile. Entries are dropped when this node writes, deletes
+ * or moves the blob, and otherwise expire after a fixed time.
+ */
+final class UfileBlobCache {
+
+    //只缓存写入后不会被覆盖的对象：快照、元数据、index-N以及分片数据文件
+    private static final Pattern IMMUTABLE_BLOB = Pattern.compile("(snap-.+\\.dat|meta-.+\\.dat|index-\\d+|__.+)");
+    //分片数据文件只读一次，不缓存内容
+    private static final Pattern DATA_BLOB = Pattern.compile("__.+");
+
+    //每个条目除内容外的大致开销
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private final Cache<String, CachedBlob> cache;
+    private final long maxBlobSize;
+
+    UfileBlobCache(long maxWeight, long maxBlobSize, TimeValue ttl) {
+        this.maxBlobSize = maxBlobSize;
+        this.cache = CacheBuilder.<String, CachedBlob>builder()
+                .setMaximumWeight(maxWeight)
+                .weigher((key, blob) -> ENTRY_OVERHEAD + key.length() + (blob.content == null ? 0 : blob.content.length))
+                .setExpireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Whether the blob behind {@code key} is immutable and may be cached.
+     */
+    static boolean isCacheable(String key) {
+        return IMMUTABLE_BLOB.matcher(blobName(key)).matches();
+    }
+
+    /**
+     * Whether the contents of a blob of the given length may be cached.
+     */
+    boolean isContentCacheable(String key, long length) {
+        return length >= 0 && length <= maxBlobSize && isCacheable(key) && DATA_BLOB.matcher(blobName(key)).matches() == false;
+    }
+
+    boolean exists(String key) {
+        return cache.get(key) != null;
+    }
+
+    /**
+     * @return the cached contents of the blob, or {@code null} if they are not cached
+     */
+    byte[] content(String key) {
+        CachedBlob blob = cache.get(key);
+        return blob == null ? null : blob.content;
+    }
+
+    void putExists(String key) {
+        if (isCacheable(key) && cache.get(key) == null) {
+            cache.put(key, new CachedBlob(null));
+        }
+    }
+
+    void putContent(String key, byte[] content) {
+        if (isContentCacheable(key, content.length)) {
+            cache.put(key, new CachedBlob(content));
+        }
+    }
+
+    void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    void clear() {
+        cache.invalidateAll();
+    }
+
+    private static String blobName(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private static final class CachedBlob {
+        private final byte[] content;
+
+        private CachedBlob(byte[] content) {
+            this.content = content;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.elasticsearch.repository.ufile;
 
 import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.common.UUIDs;
 import org.elasticsearch.common.blobstore.BlobMetaData;
 import org.elasticsearch.common.blobstore.BlobPath;
 import org.elasticsearch.common.blobstore.BlobStoreException;
@@ -10,12 +11,20 @@ import org.apache.logging.log4j.LogManager;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 
 public class UfileBlobContainer extends AbstractBlobContainer {
     private final Logger logger = LogManager.getLogger(UfileBlobContainer.class);
+    private static final String TEMP_BLOB_PREFIX = "pending-";
+    static final String DATA_BLOB_PREFIX = "__";
     private final UfileBlobStore blobStore;
     private final String keyPath;
 
@@ -54,23 +63,120 @@ public class UfileBlobContainer extends AbstractBlobContainer {
     @Override
     public InputStream readBlob(String blobName) throws IOException {
         logger.debug("readBlob({})", blobName);
-        if (!blobExists(blobName)) {
-            throw new NoSuchFileException("[" + blobName + "] blob not found");
-        }
-
         return blobStore.readBlob(buildKey(blobName));
     }
 
+    /**
+     * Creates a new {@link InputStream} for a part of the given blob, fetched with a ranged GET.
+     *
+     * @param blobName The name of the blob to read.
+     * @param position The offset of the first byte to read.
+     * @param length   The number of bytes to read; fewer are returned if the blob ends before.
+     * @return The {@code InputStream} to read the part of the blob, empty if {@code position} is at or past
+     *         the end of the blob.
+     * @throws NoSuchFileException if the blob does not exist
+     * @throws IOException         if the blob can not be read.
+     */
+    public InputStream readBlob(String blobName, long position, long length) throws IOException {
+        logger.debug("readBlob({}, {}, {})", blobName, position, length);
+        return blobStore.readBlob(buildKey(blobName), position, length);
+    }
+
+    /**
+     * Reads a part of the given blob into {@code dst}, starting at {@code position} and filling the remaining space
+     * of the buffer. Heap buffers receive the data straight from the connection without intermediate copies.
+     *
+     * @param blobName The name of the blob to read.
+     * @param position The offset of the first byte to read.
+     * @param dst      The buffer to read into, its position is advanced by the number of bytes read.
+     * @return The number of bytes read, less than the remaining space of {@code dst} only if the blob ends before.
+     * @throws NoSuchFileException if the blob does not exist
+     * @throws IOException         if the blob can not be read.
+     */
+    public int readBlob(String blobName, long position, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        try (InputStream in = readBlob(blobName, position, dst.remaining())) {
+            if (dst.hasArray()) {
+                while (dst.hasRemaining()) {
+                    int read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                    if (read < 0) {
+                        break;
+                    }
+                    dst.position(dst.position() + read);
+                }
+            } else {
+                ReadableByteChannel channel = Channels.newChannel(in);
+                while (dst.hasRemaining() && channel.read(dst) >= 0) {
+                    // 读满或到达对象末尾
+                }
+            }
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Writes a blob. With {@code failIfAlreadyExists} the existence of the blob is checked before the
+     * upload, except for shard data blobs whose names are unique and never reused. The check costs one
+     * HEAD request per write of a blob that does not exist yet, which is the common case; the metadata
+     * cache only remembers blobs that exist and so only saves the request when the write fails. When the
+     * small blob pipeline is enabled, small shard data blobs may still be uploading when this returns; any
+     * other write to this container waits for them first and fails if one of them failed. Such a blob is
+     * therefore only guaranteed to be durable once a later write, listing or delete in the same directory,
+     * or {@link UfileBlobStore#close()}, has returned without error.
+     *
+     * @throws FileAlreadyExistsException if {@code failIfAlreadyExists} is set and the blob exists
+     */
     @Override
     public void writeBlob(String blobName, InputStream inputStream, long blobSize, boolean failIfAlreadyExists) throws IOException {
         logger.debug("writeBlob({}, stream, {})", blobName, blobSize);
-        blobStore.writeBlob(buildKey(blobName), inputStream, blobSize);
+        String key = buildKey(blobName);
+        if (failIfAlreadyExists && isUniqueName(blobName) == false && blobStore.blobExists(key)) {
+            throw new FileAlreadyExistsException("blob [" + blobName + "] already exists, cannot overwrite");
+        }
+        blobStore.writeBlob(key, inputStream, blobSize);
     }
 
+    /**
+     * Uploads the blob to a temporary key and renames it to its final name on the server, so that
+     * readers never see a partially written blob. With {@code failIfAlreadyExists} the rename does not
+     * overwrite an existing blob, which makes concurrent writers of the same blob safe.
+     *
+     * @throws FileAlreadyExistsException if {@code failIfAlreadyExists} is set and the blob exists
+     */
     @Override
     public void writeBlobAtomic(String blobName, InputStream inputStream, long blobSize, boolean failIfAlreadyExists) throws IOException {
         logger.debug("writeBlobAtomic({}, stream, {})", blobName, blobSize);
-        writeBlob(blobName, inputStream, blobSize, failIfAlreadyExists);
+        String tempKey = buildKey(tempBlobName(blobName));
+        boolean moved = false;
+        try {
+            blobStore.writeBlob(tempKey, inputStream, blobSize);
+            blobStore.move(tempKey, buildKey(blobName), failIfAlreadyExists == false);
+            moved = true;
+        } finally {
+            if (moved == false) {
+                deleteTempBlobQuietly(tempKey);
+            }
+        }
+    }
+
+    private void deleteTempBlobQuietly(String tempKey) {
+        try {
+            blobStore.deleteBlob(tempKey);
+        } catch (NoSuchFileException e) {
+            // 上传未完成
+        } catch (IOException e) {
+            logger.warn("failed to delete temporary blob [{}]: {}", tempKey, e.getMessage());
+        }
+    }
+
+    //临时对象名不能与index-、snap-等快照使用的前缀冲突
+    static String tempBlobName(String blobName) {
+        return TEMP_BLOB_PREFIX + blobName + "-" + UUIDs.randomBase64UUID();
+    }
+
+    //分片数据文件名由uuid生成，不会重复写入同一个名字
+    private static boolean isUniqueName(String blobName) {
+        return blobName.startsWith(DATA_BLOB_PREFIX);
     }
 
     /**
@@ -83,10 +189,15 @@ public class UfileBlobContainer extends AbstractBlobContainer {
     @Override
     public void deleteBlob(String blobName) throws IOException {
         logger.debug("deleteBlob({})", blobName);
-        if (!blobExists(blobName)) {
-            throw new NoSuchFileException("Blob [" + blobName + "] does not exist");
+        try {
+            blobStore.deleteBlob(buildKey(blobName));
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("can not access [{}] in bucket {{}}: {}", blobName, blobStore.getBucket(),
+                    e.getMessage());
+            throw new IOException(e);
         }
-        deleteBlobIgnoringIfNotExists(blobName);
     }
 
 
@@ -95,6 +206,8 @@ public class UfileBlobContainer extends AbstractBlobContainer {
         logger.debug("deleteBlobIgnoringIfNotExists({})", blobName);
         try {
             blobStore.deleteBlob(buildKey(blobName));
+        } catch (NoSuchFileException e) {
+            logger.debug("blob [{}] does not exist, ignoring", blobName);
         } catch (Exception e) {
             logger.error("can not access [{}] in bucket {{}}: {}", blobName, blobStore.getBucket(),
                     e.getMessage());
@@ -102,6 +215,23 @@ public class UfileBlobContainer extends AbstractBlobContainer {
         }
     }
 
+    /**
+     * Deletes the given blobs concurrently, ignoring blobs that do not exist. All deletes are attempted
+     * even if some of them fail.
+     *
+     * @param blobNames The names of the blobs to delete.
+     * @throws IOException listing the blobs that could not be deleted.
+     */
+    @Override
+    public void deleteBlobsIgnoringIfNotExists(List<String> blobNames) throws IOException {
+        logger.debug("deleteBlobsIgnoringIfNotExists({} blobs)", blobNames.size());
+        List<String> keys = new ArrayList<>(blobNames.size());
+        for (String blobName : blobNames) {
+            keys.add(buildKey(blobName));
+        }
+        blobStore.deleteBlobsIgnoringIfNotExists(keys);
+    }
+
     /**
      * Lists all blobs in the container.
      *
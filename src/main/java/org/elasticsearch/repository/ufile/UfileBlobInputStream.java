@@ -0,0 +1,154 @@
+package org.elasticsearch.repository.ufile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Reads the byte range {@code [start, end)} of an object over a single connection and keeps track of
+ * its position. When the connection fails or ends early it is reopened transparently with a ranged GET
+ * from the current position, up to {@code maxRetries} times in a row. Skips of at least
+ * {@link #SKIP_BY_RANGE_THRESHOLD} bytes drop the connection and continue with a ranged GET at the
+ * target position instead of downloading the skipped bytes.
+ */
+final class UfileBlobInputStream extends InputStream {
+    private static final Logger logger = LogManager.getLogger(UfileBlobInputStream.class);
+
+    //跳过的字节数小于该值时直接读过去，比重新建立请求更快
+    static final long SKIP_BY_RANGE_THRESHOLD = 1 << 20;
+
+    private final String key;
+    private final long end;
+    private final UfileParallelRangeInputStream.RangeOpener opener;
+    private final int maxRetries;
+    private final UfileBackoff backoff;
+
+    private InputStream current;
+    private long position;
+    private int failures;
+    private boolean closed;
+
+    /**
+     * @param initial an already opened stream positioned at {@code start}, or {@code null} to open one on the first read
+     */
+    UfileBlobInputStream(String key, InputStream initial, long start, long end,
+                         UfileParallelRangeInputStream.RangeOpener opener, int maxRetries, UfileBackoff backoff) {
+        this.key = key;
+        this.current = initial;
+        this.position = start;
+        this.end = end;
+        this.opener = opener;
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+    }
+
+    long position() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream for [" + key + "] is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            return -1;
+        }
+        int toRead = (int) Math.min(len, end - position);
+        while (true) {
+            try {
+                if (current == null) {
+                    current = opener.open(position, end);
+                }
+                int n = current.read(b, off, toRead);
+                if (n < 0) {
+                    throw new IOException("premature end of [" + key + "] at [" + position + "], expected [" + end + "]");
+                }
+                position += n;
+                failures = 0;
+                return n;
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException e) {
+                reconnectOrFail(e);
+            }
+        }
+    }
+
+    //关闭当前连接，退避后从当前位置重新发起范围请求
+    private void reconnectOrFail(IOException e) throws IOException {
+        closeCurrent();
+        if (failures >= maxRetries) {
+            throw e;
+        }
+        logger.warn("reading [{}] failed at [{}], reconnecting, retry times {}. Exception info {}",
+                key, position, failures + 1, e.getMessage());
+        try {
+            backoff.pause(failures++);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            e.addSuppressed(ie);
+            throw e;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed || n <= 0) {
+            return 0;
+        }
+        long toSkip = Math.min(n, end - position);
+        if (toSkip < SKIP_BY_RANGE_THRESHOLD) {
+            return super.skip(toSkip);
+        }
+        //下一次读取时从新位置发起范围请求
+        closeCurrent();
+        position += toSkip;
+        return toSkip;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed || current == null) {
+            return 0;
+        }
+        return (int) Math.min(current.available(), end - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        InputStream in = current;
+        current = null;
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private void closeCurrent() {
+        InputStream in = current;
+        current = null;
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.debug("failed to close connection of [{}]: {}", key, e.getMessage());
+            }
+        }
+    }
+}
@@ -1,30 +1,76 @@
 package org.elasticsearch.repository.ufile;
 
+import cn.ucloud.ufile.bean.DownloadStreamBean;
 import cn.ucloud.ufile.bean.ObjectInfoBean;
 import cn.ucloud.ufile.bean.ObjectListBean;
+import cn.ucloud.ufile.bean.ObjectProfile;
 import cn.ucloud.ufile.exception.UfileClientException;
 import cn.ucloud.ufile.exception.UfileServerException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
 import org.elasticsearch.common.blobstore.*;
 import org.elasticsearch.common.blobstore.support.PlainBlobMetaData;
 import org.elasticsearch.common.collect.MapBuilder;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 
 public class UfileBlobStore implements BlobStore {
     private final Logger logger = LogManager.getLogger(UfileBlobStore.class);
     private final UfileService client;
     private final String bucket;
+    private final long parallelDownloadThreshold;
+    private final int maxConcurrentRanges;
+    private final UfileBufferPool rangeBufferPool;
+    private final int maxConcurrentDeletes;
+    //并发下载、删除和列表预取在插件的ufile_transfer线程池中执行
+    private final ExecutorService transferExecutor;
+    private final UfileAsyncService asyncClient;
+    private final UfileBlobCache blobCache;
+    private final boolean verifyChecksums;
+    //下载中断后重新连接的次数和退避
+    private final int maxRetries;
+    private final UfileBackoff backoff;
+    //节点本地的磁盘块缓存，未启用时为null
+    private final UfileBlockCache blockCache;
+    //小对象的并发上传，未启用时为null
+    private final UfileUploadPipeline uploadPipeline;
 
-    UfileBlobStore(Settings settings, String bucket, UfileService client) {
+    UfileBlobStore(Settings settings, RepositoryMetaData metadata, String bucket, UfileService client,
+                   UfileBlockCache blockCache, ThreadPool threadPool) {
 
         this.client = client;
+        this.blockCache = blockCache;
+        this.transferExecutor = threadPool.executor(UfileRepositoryPlugin.TRANSFER_THREAD_POOL);
+        this.asyncClient = new UfileAsyncServiceImpl(client, threadPool.executor(UfileRepositoryPlugin.THREAD_POOL));
         this.bucket = bucket;
+        this.parallelDownloadThreshold = UfileClientSettings.PARALLEL_DOWNLOAD_THRESHOLD.get(metadata.settings()).getBytes();
+        this.maxConcurrentRanges = UfileClientSettings.MAX_CONCURRENT_RANGES.get(metadata.settings());
+        int rangeSize = Math.toIntExact(UfileClientSettings.DOWNLOAD_RANGE_SIZE.get(metadata.settings()).getBytes());
+        this.rangeBufferPool = new UfileBufferPool(rangeSize, maxConcurrentRanges * 2);
+        this.maxConcurrentDeletes = UfileClientSettings.MAX_CONCURRENT_DELETES.get(metadata.settings());
+        this.verifyChecksums = UfileClientSettings.VERIFY_CHECKSUMS.get(metadata.settings());
+        this.maxRetries = UfileClientSettings.MAX_RETRIES.get(metadata.settings());
+        this.backoff = new UfileBackoff(UfileClientSettings.RETRY_BACKOFF.get(metadata.settings()),
+                UfileClientSettings.RETRY_MAX_BACKOFF.get(metadata.settings()));
+        this.blobCache = UfileClientSettings.METADATA_CACHE_ENABLED.get(metadata.settings())
+                ? new UfileBlobCache(UfileClientSettings.METADATA_CACHE_SIZE.get(metadata.settings()).getBytes(),
+                UfileClientSettings.METADATA_CACHE_MAX_BLOB_SIZE.get(metadata.settings()).getBytes(),
+                UfileClientSettings.METADATA_CACHE_TTL.get(metadata.settings()))
+                : null;
+        int pipelineInFlight = UfileClientSettings.SMALL_BLOB_PIPELINE_MAX_IN_FLIGHT.get(metadata.settings());
+        this.uploadPipeline = pipelineInFlight > 0
+                ? new UfileUploadPipeline(asyncClient, bucket, pipelineInFlight,
+                UfileClientSettings.SMALL_BLOB_PIPELINE_MAX_BLOB_SIZE.get(metadata.settings()).getBytes())
+                : null;
         boolean exist = doesBucketExist(bucket);
         if (!exist) {
             throw new BlobStoreException("Bucket [" + bucket + "] does not exist");
@@ -35,57 +81,127 @@ public class UfileBlobStore implements BlobStore {
         return this.bucket;
     }
 
+    //异步接口，在插件的ufile线程池中执行
+    UfileAsyncService asyncClient() {
+        return asyncClient;
+    }
+
     @Override
     public BlobContainer blobContainer(BlobPath blobPath) {
         return new UfileBlobContainer(blobPath, this);
     }
 
-    //按目录删除文件
+    //按目录删除文件，列表的每一页直接交给并发删除
     @Override
     public void delete(BlobPath blobPath) throws IOException {
         SocketAccess.doPrivilegedIOException(() -> {
-            logger.debug("delete path: {}", blobPath.buildAsString());
-            Map<String, BlobMetaData> blobs = listBlobsByPrefix(blobPath.buildAsString(), null);
-            Iterator<String> blobNameIterator = blobs.keySet().iterator();
-            while (blobNameIterator.hasNext()) {
-                String blobName = blobNameIterator.next();
-
-                try {
-                    this.client.deleteObject(bucket, blobPath.buildAsString() + blobName);
-                } catch (UfileClientException e) {
-                    logger.error("UfileBlobStore.delete.UfileClientException: [{}]", e.getMessage());
-                    throw new IOException(e.getMessage());
-                } catch (UfileServerException e) {
-                    logger.error("UfileBlobStore.delete.UfileServerException: [{}]", e.getMessage());
-                    throw new IOException(e.getMessage());
+            String prefix = blobPath.buildAsString();
+            logger.debug("delete path: {}", prefix);
+            flushPendingWrites(prefix);
+            UfileBulkDelete bulkDelete = new UfileBulkDelete(transferExecutor, maxConcurrentDeletes, this::deleteBlob);
+            try {
+                Iterator<ObjectInfoBean> objects = listObjects(prefix);
+                while (objects.hasNext()) {
+                    bulkDelete.submit(objects.next().getFileName());
                 }
+            } catch (UncheckedIOException e) {
+                //列表失败时仍等待已提交的删除，删除失败作为附加异常，不覆盖列表的异常
+                bulkDelete.finishAfter(e.getCause());
+                throw e.getCause();
+            } catch (IOException | RuntimeException e) {
+                bulkDelete.finishAfter(e);
+                throw e;
             }
+            bulkDelete.finish();
             return null;
         });
     }
 
+    //并发删除一组对象，对象不存在时忽略
+    void deleteBlobsIgnoringIfNotExists(Collection<String> blobNames) throws IOException {
+        for (String blobName : blobNames) {
+            awaitPendingWrite(blobName);
+        }
+        UfileBulkDelete bulkDelete = new UfileBulkDelete(transferExecutor, maxConcurrentDeletes, this::deleteBlob);
+        try {
+            for (String blobName : blobNames) {
+                bulkDelete.submit(blobName);
+            }
+        } catch (IOException | RuntimeException e) {
+            bulkDelete.finishAfter(e);
+            throw e;
+        }
+        bulkDelete.finish();
+    }
+
     Map<String, BlobMetaData> listBlobsByPrefix(String keyPath, String prefix) throws IOException {
+        MapBuilder<String, BlobMetaData> blobsBuilder = MapBuilder.newMapBuilder();
+        String actualPrefix = keyPath + (prefix == null ? StringUtils.EMPTY : prefix);
+        flushPendingWrites(actualPrefix);
+        try {
+            Iterator<ObjectInfoBean> objects = listObjects(actualPrefix);
+            while (objects.hasNext()) {
+                ObjectInfoBean objInfo = objects.next();
+                String blobName = objInfo.getFileName().substring(keyPath.length());
+                blobsBuilder.put(blobName, new PlainBlobMetaData(blobName, objInfo.getSize()));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.debug("bucket [{}], path [{}], prefix [{}], listed [{}] blobs", bucket, keyPath, prefix, blobsBuilder.map().size());
+        return blobsBuilder.immutableMap();
+    }
+
+    //按页懒加载列出前缀下的对象，处理当前页时预取下一页
+    Iterator<ObjectInfoBean> listObjects(String prefix) {
+        return new UfileObjectIterator(marker -> listPage(prefix, marker), transferExecutor);
+    }
+
+    //列出一页对象
+    private ObjectListBean listPage(String prefix, String marker) throws IOException {
         return SocketAccess.doPrivilegedIOException(() -> {
-            MapBuilder<String, BlobMetaData> blobsBuilder = MapBuilder.newMapBuilder();
-            String actualPrefix = keyPath + (prefix == null ? StringUtils.EMPTY : prefix);
-            String nextMarker = null;
-            ObjectListBean blobs;
-            do {
-                blobs = this.client.listObjects(bucket, actualPrefix, nextMarker);
-                for (ObjectInfoBean objInfo : blobs.getObjectList()) {
-                    String blobName = objInfo.getFileName().substring(keyPath.length());
-                    blobsBuilder.put(blobName, new PlainBlobMetaData(blobName, objInfo.getSize()));
-                }
-                nextMarker = blobs.getNextMarker();
-                logger.debug("bucket [{}], path [{}], prefix [{}], nextMarker [{}] [{}][{}] [{}]", bucket, keyPath, prefix, nextMarker, (nextMarker == ""), (nextMarker == null), nextMarker.length());
-            } while (nextMarker != null && nextMarker.length() != 0);
-            return blobsBuilder.immutableMap();
+            try {
+                return this.client.listObjects(bucket, prefix, marker);
+            } catch (UfileClientException e) {
+                logger.error("UfileBlobStore.listPage.UfileClientException: [{}]", e.getMessage());
+                throw new IOException(e.getMessage());
+            } catch (UfileServerException e) {
+                logger.error("UfileBlobStore.listPage.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
+                throw new IOException(e.getMessage());
+            }
         });
     }
 
     @Override
     public void close() throws IOException {
+        IOException failure = null;
+        try {
+            flushPendingWrites(StringUtils.EMPTY);
+        } catch (IOException e) {
+            failure = e;
+        }
+        if (blobCache != null) {
+            blobCache.clear();
+        }
         client.shutdown();
+        //未完成的并发上传失败时，释放资源后再带着原始异常报告
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //等待该对象未完成的并发上传，上传失败时抛出异常
+    private void awaitPendingWrite(String blobName) throws IOException {
+        if (uploadPipeline != null) {
+            uploadPipeline.await(blobName);
+        }
+    }
+
+    //等待前缀下所有未完成的并发上传
+    private void flushPendingWrites(String prefix) throws IOException {
+        if (uploadPipeline != null) {
+            uploadPipeline.flush(prefix);
+        }
     }
 
     //判断bucket 存在性
@@ -94,62 +210,225 @@ public class UfileBlobStore implements BlobStore {
         return b;
     }
 
-    //对象存在性
+    //对象存在性，不可变对象的存在性可以从缓存中获取
     boolean blobExists(String blobName) throws IOException {
+        awaitPendingWrite(blobName);
+        if (blobCache != null && blobCache.exists(blobName)) {
+            logger.debug("UfileBlobStore.blobExists, cached: [{}]", blobName);
+            return true;
+        }
         return SocketAccess.doPrivilegedIOException(() -> {
             try {
                 boolean r = this.client.doesObjectExist(bucket, blobName);
                 logger.debug("UfileBlobStore.blobExists, exist: [{}]", r);
+                if (r && blobCache != null) {
+                    blobCache.putExists(blobName);
+                }
                 return r;
             } catch (UfileClientException e) {
                 logger.error("UfileBlobStore.blobExists.UfileClientException: [{}]", e.getMessage());
                 throw new IOException(e.getMessage());
             } catch (UfileServerException e) {
-                logger.error("UfileBlobStore.blobExists.UfileServerException: [{}]", e.getMessage());
+                logger.error("UfileBlobStore.blobExists.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
                 throw new IOException(e.getMessage());
             }
         });
     }
 
-    //读取对象
+    //读取对象，大对象按范围并发下载，小的不可变对象缓存其内容。
+    //启用磁盘块缓存且缓存中有该对象的块时，分片数据文件先查询etag，所有块都已缓存时从本地磁盘读取；
+    //缓存中没有该对象时直接下载，按下载响应中的etag写入缓存
     InputStream readBlob(String blobName) throws IOException {
+        awaitPendingWrite(blobName);
+        if (blobCache != null) {
+            byte[] content = blobCache.content(blobName);
+            if (content != null) {
+                logger.debug("readBlob [{}], served from cache", blobName);
+                return new ByteArrayInputStream(content);
+            }
+        }
+        if (blockCache != null && isDataBlob(blobName) && blockCache.containsAny(bucket, blobName)) {
+            ObjectProfile profile = getObjectProfile(blobName);
+            long length = profile.getContentLength();
+            String etag = profile.geteTag();
+            if (etag != null && etag.isEmpty() == false && blockCache.accepts(length)) {
+                String blobId = UfileBlockCache.blobId(bucket, blobName, etag);
+                if (blockCache.containsAll(blobId, length)) {
+                    logger.debug("readBlob [{}], served from block cache", blobName);
+                    return blockCache.open(blobId, length, (start, end) -> readBlobRange(blobName, start, end));
+                }
+            }
+        }
         return SocketAccess.doPrivilegedIOException(() -> {
             try {
-                InputStream ins = this.client.getObject(bucket, blobName).getInputStream();
-                return ins;
+                DownloadStreamBean bean = this.client.getObject(bucket, blobName);
+                long length = bean.getContentLength();
+                if (length < 0) {
+                    //响应没有长度时无法按位置重连、分范围下载或校验，直接返回响应体
+                    logger.debug("readBlob [{}], response has no content length, reading it as is", blobName);
+                    return bean.getInputStream();
+                }
+                //连接中断时从当前位置重新发起范围请求
+                InputStream ins = new UfileBlobInputStream(blobName, bean.getInputStream(), 0, length,
+                        (start, end) -> readBlobRange(blobName, start, end), maxRetries, backoff);
+                if (blobCache != null && blobCache.isContentCacheable(blobName, length)) {
+                    byte[] content = new byte[(int) length];
+                    try (InputStream in = verify(ins, blobName, bean.geteTag(), length)) {
+                        int read = UfileBufferPool.fill(in, content, content.length);
+                        if (read != content.length) {
+                            throw new IOException("premature end of [" + blobName + "], got [" + read + "] of [" + length + "] bytes");
+                        }
+                    }
+                    blobCache.putContent(blobName, content);
+                    return new ByteArrayInputStream(content);
+                }
+                if (length > rangeBufferPool.bufferSize()) {
+                    //超过一个范围的对象按范围读取，小于并发阈值时只预取下一个范围
+                    int window = length >= parallelDownloadThreshold ? maxConcurrentRanges : 1;
+                    logger.debug("readBlob [{}], length [{}], using [{}] concurrent ranges", blobName, length, window);
+                    ins = new UfileParallelRangeInputStream(blobName, ins, length, window,
+                            transferExecutor, rangeBufferPool, (start, end) -> new UfileBlobInputStream(blobName, null, start, end,
+                            (s, e) -> readBlobRange(blobName, s, e), maxRetries, backoff));
+                }
+                return cached(blobName, verify(ins, blobName, bean.geteTag(), length), bean.geteTag(), length);
             } catch (UfileClientException e) {
-                logger.error("UfileBlobStore.move.UfileClientException: [{}]", e.getMessage());
+                logger.error("UfileBlobStore.readBlob.UfileClientException: [{}]", e.getMessage());
                 throw new IOException(e.getMessage());
             } catch (UfileServerException e) {
-                logger.error("UfileBlobStore.move.UfileServerException: [{}]", e.getMessage());
+                if (UfileError.of(e).isNotFound()) {
+                    throw new NoSuchFileException("[" + blobName + "] blob not found");
+                }
+                logger.error("UfileBlobStore.readBlob.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
                 throw new IOException(e.getMessage());
             }
         });
     }
 
+    //分片数据文件读完并校验通过后写入磁盘块缓存
+    private InputStream cached(String blobName, InputStream in, String etag, long length) {
+        if (blockCache == null || isDataBlob(blobName) == false || etag == null || etag.isEmpty()) {
+            return in;
+        }
+        return blockCache.caching(UfileBlockCache.blobId(bucket, blobName, etag), length, in);
+    }
 
+    private static boolean isDataBlob(String blobName) {
+        return blobName.substring(blobName.lastIndexOf('/') + 1).startsWith(UfileBlobContainer.DATA_BLOB_PREFIX);
+    }
+
+    private ObjectProfile getObjectProfile(String blobName) throws IOException {
+        return SocketAccess.doPrivilegedIOException(() -> {
+            try {
+                return this.client.getObjectProfile(bucket, blobName);
+            } catch (UfileClientException e) {
+                logger.error("UfileBlobStore.getObjectProfile.UfileClientException: [{}]", e.getMessage());
+                throw new IOException(e.getMessage());
+            } catch (UfileServerException e) {
+                if (UfileError.of(e).isNotFound()) {
+                    throw new NoSuchFileException("[" + blobName + "] blob not found");
+                }
+                logger.error("UfileBlobStore.getObjectProfile.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
+                throw new IOException(e.getMessage());
+            }
+        });
+    }
+
+    //整个对象按顺序读完时校验etag，不需要额外读一遍数据
+    private InputStream verify(InputStream in, String blobName, String etag, long length) {
+        if (verifyChecksums == false || etag == null || etag.isEmpty() || length < 0) {
+            return in;
+        }
+        return new UfileChecksumInputStream(in, blobName, etag, length);
+    }
+
+    //读取对象的一部分，对象在length之前结束时只返回到对象末尾，position在对象末尾或之后时返回空流
+    InputStream readBlob(String blobName, long position, long length) throws IOException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("invalid range [" + position + "+" + length + "] of [" + blobName + "]");
+        }
+        awaitPendingWrite(blobName);
+        if (blobCache != null) {
+            byte[] content = blobCache.content(blobName);
+            if (content != null) {
+                logger.debug("readBlob [{}], range [{}+{}] served from cache", blobName, position, length);
+                int from = (int) Math.min(position, content.length);
+                return new ByteArrayInputStream(content, from, (int) Math.min(length, content.length - from));
+            }
+        }
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        DownloadStreamBean bean = getRange(blobName, position, position + length, true);
+        if (bean == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        //实际返回的长度以响应为准，之后的重连都在这个范围内
+        long end = position + (bean.getContentLength() < 0 ? length : Math.min(length, bean.getContentLength()));
+        return new UfileBlobInputStream(blobName, bean.getInputStream(), position, end,
+                (start, rangeEnd) -> readBlobRange(blobName, start, rangeEnd), maxRetries, backoff);
+    }
+
+    //按范围读取对象，[start, end)
+    InputStream readBlobRange(String blobName, long start, long end) throws IOException {
+        return getRange(blobName, start, end, false).getInputStream();
+    }
+
+    //pastEndAllowed为true时，范围从对象末尾之后开始（ufile返回416）时返回null
+    private DownloadStreamBean getRange(String blobName, long start, long end, boolean pastEndAllowed) throws IOException {
+        return SocketAccess.doPrivilegedIOException(() -> {
+            try {
+                return this.client.getObject(bucket, blobName, start, end);
+            } catch (UfileClientException e) {
+                logger.error("UfileBlobStore.readBlobRange.UfileClientException: [{}]", e.getMessage());
+                throw new IOException(e.getMessage());
+            } catch (UfileServerException e) {
+                if (UfileError.of(e).isNotFound()) {
+                    throw new NoSuchFileException("[" + blobName + "] blob not found");
+                }
+                if (pastEndAllowed && UfileError.of(e).isRangeNotSatisfiable()) {
+                    return null;
+                }
+                logger.error("UfileBlobStore.readBlobRange.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
+                throw new IOException(e.getMessage());
+            }
+        });
+    }
+
+
+    //小的分片数据文件交给并发上传，立即返回；其他对象上传前先等待同一目录下的并发上传完成，
+    //这样分片的snap-和index-N文件写入成功时，它引用的数据文件都已写入
     void writeBlob(String blobName, InputStream inputStream, long blobSize) throws IOException {
+        invalidateCache(blobName);
+        if (uploadPipeline != null) {
+            if (isDataBlob(blobName) && uploadPipeline.accepts(blobSize)) {
+                logger.debug("writeBlob [{}] blobSize:[{}], pipelined", blobName, blobSize);
+                uploadPipeline.submit(blobName, inputStream, blobSize, () -> invalidateCache(blobName));
+                return;
+            }
+            flushPendingWrites(blobName.substring(0, blobName.lastIndexOf('/') + 1));
+        }
         SocketAccess.doPrivilegedIOException(() -> {
             try {
-                byte[] buf = new byte[(int) (blobSize)];
-                int read = inputStream.read(buf);
-                logger.debug("writeBlob blobSize:[{}], readSize[{}]", blobSize, read);
-                InputStream inputStream2 = new ByteArrayInputStream(buf);
-                logger.debug("writeBlob inputStrem size:[{}]", inputStream2.available());
-                this.client.putObject(bucket, blobName, inputStream2, blobSize);
+                logger.debug("writeBlob blobSize:[{}]", blobSize);
+                //直接将流交给service，按分片读取上传，不在堆上缓存整个对象
+                this.client.putObject(bucket, blobName, inputStream, blobSize);
             } catch (UfileClientException e) {
                 logger.error("UfileBlobStore.writeBlob.UfileClientException: [{}]", e.getMessage());
                 throw new IOException(e.getMessage());
             } catch (UfileServerException e) {
-                logger.error("UfileBlobStore.writeBlob.UfileServerException: [{}]", e.getMessage());
+                logger.error("UfileBlobStore.writeBlob.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
                 throw new IOException(e.getMessage());
             }
             return null;
         });
+        //上传期间可能有读请求重新缓存了旧内容
+        invalidateCache(blobName);
     }
 
-    //删除对象
+    //删除对象，对象不存在时抛出NoSuchFileException
     void deleteBlob(String blobName) throws IOException {
+        awaitPendingWrite(blobName);
+        invalidateCache(blobName);
         SocketAccess.doPrivilegedIOException(() -> {
             try {
                 this.client.deleteObject(bucket, blobName);
@@ -157,28 +436,46 @@ public class UfileBlobStore implements BlobStore {
                 logger.error("UfileBlobStore.deleteBlob.UfileClientException: [{}]", e.getMessage());
                 throw new IOException(e.getMessage());
             } catch (UfileServerException e) {
-                logger.error("UfileBlobStore.deleteBlob.UfileServerException: [{}]", e.getMessage());
+                if (UfileError.of(e).isNotFound()) {
+                    throw new NoSuchFileException("Blob [" + blobName + "] does not exist");
+                }
+                logger.error("UfileBlobStore.deleteBlob.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
                 throw new IOException(e.getMessage());
             }
             return null;
         });
     }
 
-    //移动对象
-    public void move(String sourceBlobName, String targetBlobName) throws IOException {
+    //移动对象，同一bucket内直接重命名，不搬运数据。不覆盖时由ufile在服务端判断目标是否存在，
+    //目标已存在时抛出FileAlreadyExistsException
+    public void move(String sourceBlobName, String targetBlobName, boolean overwrite) throws IOException {
+        awaitPendingWrite(sourceBlobName);
+        invalidateCache(sourceBlobName);
+        invalidateCache(targetBlobName);
         SocketAccess.doPrivilegedIOException(() -> {
             try {
-                this.client.copyObject(bucket, sourceBlobName, bucket, targetBlobName);
-                this.client.deleteObject(bucket, sourceBlobName);
+                this.client.renameObject(bucket, sourceBlobName, targetBlobName, overwrite);
             } catch (UfileClientException e) {
                 logger.error("UfileBlobStore.move.UfileClientException: [{}]", e.getMessage());
                 throw new IOException(e.getMessage());
             } catch (UfileServerException e) {
-                logger.error("UfileBlobStore.move.UfileServerException: [{}]", e.getMessage());
+                if (UfileError.of(e).isNotFound()) {
+                    throw new NoSuchFileException("Blob [" + sourceBlobName + "] does not exist");
+                }
+                //冲突时ufile返回的错误码没有文档说明，以目标对象是否存在为准
+                if (overwrite == false && blobExists(targetBlobName)) {
+                    throw new FileAlreadyExistsException("Blob [" + targetBlobName + "] already exists");
+                }
+                logger.error("UfileBlobStore.move.UfileServerException: [{}] [{}]", UfileError.of(e), e.getMessage());
                 throw new IOException(e.getMessage());
             }
             return null;
         });
     }
 
+    private void invalidateCache(String blobName) {
+        if (blobCache != null) {
+            blobCache.invalidate(blobName);
+        }
+    }
 }
@@ -0,0 +1,436 @@
+package org.elasticsearch.repository.ufile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.core.internal.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Node-local disk cache of blob contents, split into fixed-size blocks. A blob is identified by bucket,
+ * key and ETag, so a rewritten object never matches stale blocks. Block names start with the digest of
+ * bucket and key, so that callers can tell whether any version of an object is cached, and only then
+ * need its ETag. Blocks are only added once the whole
+ * blob has been read through {@link #caching}, i.e. after its checksum has been verified, and are read
+ * back through memory-mapped files. The least recently used blocks are deleted once the cache grows
+ * past its disk budget. The index is rebuilt from the directory when the node starts.
+ */
+final class UfileBlockCache {
+    private static final Logger logger = LogManager.getLogger(UfileBlockCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    //块文件名为 对象摘要-etag摘要.块序号
+    private static final char KEY_SEPARATOR = '-';
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int blockSize;
+
+    //文件名 -> 大小，按访问顺序排列，最久未使用的在最前
+    private final LinkedHashMap<String, Long> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    //对象摘要 -> 已缓存的块数
+    private final Map<String, Integer> blocksPerKey = new HashMap<>();
+    private long usedBytes;
+
+    UfileBlockCache(Path directory, long maxBytes, int blockSize) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.blockSize = blockSize;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    //重启后按修改时间恢复索引，未完成的临时文件直接删除
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(UfileBlockCache::lastModified));
+        synchronized (this) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                //未完成的临时文件和旧命名方式的块直接删除
+                if (name.endsWith(TEMP_SUFFIX) || name.indexOf(KEY_SEPARATOR) < 0) {
+                    Files.deleteIfExists(file);
+                } else {
+                    add(name, Files.size(file));
+                }
+            }
+            evict();
+        }
+        logger.debug("block cache [{}] loaded [{}] blocks, [{}] bytes", directory, blocks.size(), usedBytes);
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Identifies one version of a blob.
+     */
+    static String blobId(String bucket, String key, String etag) {
+        return keyId(bucket, key) + KEY_SEPARATOR + sha256(etag);
+    }
+
+    private static String keyId(String bucket, String key) {
+        return sha256(bucket + "/" + key);
+    }
+
+    private static String sha256(String s) {
+        return MessageDigests.toHexString(MessageDigests.sha256().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Whether any block of any version of the blob is cached. Only then is it worth fetching the ETag
+     * of the blob to look up its blocks.
+     */
+    synchronized boolean containsAny(String bucket, String key) {
+        return blocksPerKey.containsKey(keyId(bucket, key));
+    }
+
+    /**
+     * Whether every block of a blob of the given length is cached.
+     */
+    synchronized boolean containsAll(String blobId, long length) {
+        for (int i = 0; i < blockCount(length); i++) {
+            if (blocks.get(blockName(blobId, i)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a blob of the given length may be cached at all.
+     */
+    boolean accepts(long length) {
+        return length > 0 && length <= maxBytes;
+    }
+
+    /**
+     * Reads a blob from its cached blocks. Blocks evicted in the meantime are fetched with {@code fallback}.
+     */
+    InputStream open(String blobId, long length, UfileParallelRangeInputStream.RangeOpener fallback) {
+        return new CachedInputStream(blobId, length, fallback);
+    }
+
+    /**
+     * Returns a stream that reads {@code in} and caches its blocks once it has been read to the end.
+     * Blobs that are closed or skipped before their end are not cached.
+     */
+    InputStream caching(String blobId, long length, InputStream in) {
+        if (accepts(length) == false) {
+            return in;
+        }
+        return new CachingInputStream(blobId, length, in);
+    }
+
+    private int blockCount(long length) {
+        return (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    private static String blockName(String blobId, int block) {
+        return blobId + "." + block;
+    }
+
+    //在synchronized内调用
+    private void add(String name, long size) {
+        Long previous = blocks.put(name, size);
+        usedBytes += size - (previous == null ? 0 : previous);
+        if (previous == null) {
+            blocksPerKey.merge(keyOf(name), 1, Integer::sum);
+        }
+    }
+
+    private static String keyOf(String name) {
+        return name.substring(0, name.indexOf(KEY_SEPARATOR));
+    }
+
+    //在synchronized内调用，删除最久未使用的块直到不超过磁盘预算
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = blocks.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            usedBytes -= eldest.getValue();
+            blocksPerKey.computeIfPresent(keyOf(eldest.getKey()), (k, count) -> count == 1 ? null : count - 1);
+            try {
+                //已经映射的文件在删除后仍可读取
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("failed to delete cached block [{}]: {}", eldest.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    //映射一个缓存块，块已被淘汰时返回null
+    private MappedByteBuffer map(String name) throws IOException {
+        synchronized (this) {
+            if (blocks.get(name) == null) {
+                return null;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(name), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    //所有块写完并校验通过后再放入缓存
+    private void publish(String blobId, List<Path> temps) throws IOException {
+        synchronized (this) {
+            for (int i = 0; i < temps.size(); i++) {
+                String name = blockName(blobId, i);
+                Path target = directory.resolve(name);
+                Files.move(temps.get(i), target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                add(name, Files.size(target));
+            }
+            evict();
+        }
+        logger.debug("cached [{}] blocks of [{}], cache size [{}] bytes", temps.size(), blobId, usedBytes);
+    }
+
+    /**
+     * Reads cached blocks through memory mappings, block by block.
+     */
+    private final class CachedInputStream extends InputStream {
+        private final String blobId;
+        private final long length;
+        private final UfileParallelRangeInputStream.RangeOpener fallback;
+
+        private long position;
+        private int currentBlock = -1;
+        private MappedByteBuffer mapped;
+        private InputStream remote;
+
+        private CachedInputStream(String blobId, long length, UfileParallelRangeInputStream.RangeOpener fallback) {
+            this.blobId = blobId;
+            this.length = length;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int block = (int) (position / blockSize);
+            if (block != currentBlock) {
+                openBlock(block);
+            }
+            long blockEnd = Math.min(length, (long) (block + 1) * blockSize);
+            int n = (int) Math.min(len, blockEnd - position);
+            if (mapped != null) {
+                mapped.position((int) (position - (long) block * blockSize));
+                mapped.get(b, off, n);
+            } else {
+                n = remote.read(b, off, n);
+                if (n < 0) {
+                    throw new IOException("premature end of block [" + block + "] of [" + blobId + "]");
+                }
+            }
+            position += n;
+            return n;
+        }
+
+        private void openBlock(int block) throws IOException {
+            closeRemote();
+            currentBlock = block;
+            mapped = map(blockName(blobId, block));
+            if (mapped == null) {
+                //块在读取期间被淘汰，从ufile读取这一段
+                long start = (long) block * blockSize;
+                remote = fallback.open(start, Math.min(length, start + blockSize));
+                if (position > start) {
+                    remote.skip(position - start);
+                }
+            }
+        }
+
+        //跳过只移动位置，不读取数据
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, length - position);
+            position += skipped;
+            if (position / blockSize != currentBlock) {
+                closeRemote();
+                currentBlock = -1;
+                mapped = null;
+            } else if (remote != null) {
+                long remaining = skipped;
+                while (remaining > 0) {
+                    long s = remote.skip(remaining);
+                    if (s <= 0) {
+                        throw new IOException("failed to skip in block [" + currentBlock + "] of [" + blobId + "]");
+                    }
+                    remaining -= s;
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mapped == null ? 0 : (int) Math.min(Integer.MAX_VALUE,
+                    Math.min(length, (long) (currentBlock + 1) * blockSize) - position);
+        }
+
+        private void closeRemote() throws IOException {
+            if (remote != null) {
+                InputStream r = remote;
+                remote = null;
+                r.close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mapped = null;
+            closeRemote();
+        }
+    }
+
+    /**
+     * Copies the blocks of a blob into temporary files while it is being read.
+     */
+    private final class CachingInputStream extends InputStream {
+        private final String blobId;
+        private final long length;
+        private final InputStream in;
+
+        private final List<Path> temps = new ArrayList<>();
+        private OutputStream out;
+        private long position;
+        private boolean discarded;
+
+        private CachingInputStream(String blobId, long length, InputStream in) {
+            this.blobId = blobId;
+            this.length = length;
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0 && discarded == false) {
+                try {
+                    write(b, off, n);
+                } catch (IOException e) {
+                    //缓存写失败不影响读取
+                    logger.warn("failed to cache blocks of [{}]: {}", blobId, e.getMessage());
+                    discard();
+                }
+            }
+            return n;
+        }
+
+        private void write(byte[] b, int off, int n) throws IOException {
+            while (n > 0) {
+                if (out == null) {
+                    Path temp = Files.createTempFile(directory, blockName(blobId, temps.size()) + ".", TEMP_SUFFIX);
+                    temps.add(temp);
+                    out = Files.newOutputStream(temp);
+                }
+                int inBlock = (int) Math.min(n, (long) temps.size() * blockSize - position);
+                out.write(b, off, inBlock);
+                position += inBlock;
+                off += inBlock;
+                n -= inBlock;
+                if (position == (long) temps.size() * blockSize || position == length) {
+                    out.close();
+                    out = null;
+                }
+            }
+            if (position == length) {
+                publish(blobId, temps);
+                temps.clear();
+                discarded = true;
+            }
+        }
+
+        //跳过的部分无法缓存，放弃整个对象
+        @Override
+        public long skip(long n) throws IOException {
+            discard();
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        private void discard() {
+            if (discarded) {
+                return;
+            }
+            discarded = true;
+            try {
+                IOUtils.close(out);
+            } catch (IOException e) {
+                // ignore
+            }
+            out = null;
+            for (Path temp : temps) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    logger.debug("failed to delete [{}]", temp);
+                }
+            }
+            temps.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.elasticsearch.repository.ufile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded free-list of equally sized byte buffers. Uploads borrow a buffer, fill it from the
+ * snapshot stream and hand it back once the request is done, so the heap used per upload stays at
+ * a few buffers no matter how large the blob is.
+ */
+final class UfileBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> free;
+
+    UfileBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive but was [" + bufferSize + "]");
+        }
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a pooled buffer, or a freshly allocated one if the pool is empty.
+     */
+    byte[] acquire() {
+        byte[] buffer = free.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Hands a buffer back. Buffers of a foreign size, or beyond the pool capacity, are left to the GC.
+     */
+    void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * Reads from {@code in} until {@code len} bytes have been read into {@code buffer} or the stream ends.
+     * Unlike a single {@link InputStream#read(byte[])} this never returns a short count before EOF.
+     *
+     * @return the number of bytes read, which is less than {@code len} only at the end of the stream
+     */
+    static int fill(InputStream in, byte[] buffer, int len) throws IOException {
+        return fill(in, buffer, len, null);
+    }
+
+    /**
+     * Like {@link #fill(InputStream, byte[], int)}, and feeds every chunk to {@code etag} as soon as it
+     * was read, unless it is {@code null}.
+     */
+    static int fill(InputStream in, byte[] buffer, int len, UfileEtag etag) throws IOException {
+        int filled = 0;
+        while (filled < len) {
+            int read = in.read(buffer, filled, len - filled);
+            if (read < 0) {
+                break;
+            }
+            if (etag != null) {
+                etag.update(buffer, filled, read);
+            }
+            filled += read;
+        }
+        return filled;
+    }
+}
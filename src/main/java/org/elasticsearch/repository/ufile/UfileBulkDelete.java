@@ -0,0 +1,119 @@
+package org.elasticsearch.repository.ufile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.CheckedConsumer;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Deletes keys concurrently with a bounded number of requests in flight. Keys are submitted one by
+ * one, typically straight from a listing page, and {@link #finish()} waits for all of them and
+ * reports every key that could not be deleted. Keys that do not exist are not failures.
+ */
+final class UfileBulkDelete {
+    private static final Logger logger = LogManager.getLogger(UfileBulkDelete.class);
+
+    //异常信息中最多列出的失败对象数
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    private final ExecutorService executor;
+    private final Semaphore window;
+    private final CheckedConsumer<String, IOException> deleter;
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final Map<String, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+    private int submitted;
+
+    UfileBulkDelete(ExecutorService executor, int maxConcurrentDeletes, CheckedConsumer<String, IOException> deleter) {
+        this.executor = executor;
+        this.window = new Semaphore(maxConcurrentDeletes);
+        this.deleter = deleter;
+    }
+
+    /**
+     * Schedules the deletion of {@code key}, blocking while the maximum number of deletes is in flight.
+     */
+    void submit(String key) throws IOException {
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while deleting [" + key + "]", e);
+        }
+        submitted++;
+        pending.add(executor.submit(() -> {
+            try {
+                deleter.accept(key);
+            } catch (NoSuchFileException e) {
+                logger.debug("blob [{}] does not exist, ignoring", key);
+            } catch (Exception e) {
+                logger.warn("failed to delete [{}]: {}", key, e.getMessage());
+                failures.put(key, e);
+            } finally {
+                window.release();
+            }
+        }));
+    }
+
+    /**
+     * Waits for all submitted deletes.
+     *
+     * @throws IOException listing the keys that could not be deleted, if any
+     */
+    void finish() throws IOException {
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for deletes", e);
+            } catch (Exception e) {
+                throw new IOException("unexpected failure while deleting blobs", e);
+            }
+        }
+        pending.clear();
+        if (failures.isEmpty()) {
+            return;
+        }
+        List<String> keys;
+        synchronized (failures) {
+            keys = new ArrayList<>(failures.keySet());
+        }
+        IOException e = new IOException("failed to delete [" + keys.size() + "] of [" + submitted + "] blobs: "
+                + keys.subList(0, Math.min(MAX_REPORTED_FAILURES, keys.size())));
+        for (String key : keys.subList(0, Math.min(MAX_REPORTED_FAILURES, keys.size()))) {
+            e.addSuppressed(failures.get(key));
+        }
+        throw e;
+    }
+
+    /**
+     * Waits for all submitted deletes after submitting failed with {@code failure}. A failure to delete is
+     * added to it as suppressed instead of replacing it.
+     */
+    void finishAfter(Exception failure) {
+        try {
+            finish();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * The keys that could not be deleted so far, with their failure.
+     */
+    Map<String, Exception> failures() {
+        synchronized (failures) {
+            return new LinkedHashMap<>(failures);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.elasticsearch.repository.ufile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Computes the UFile ETag of a blob while it is read and compares it with the ETag UFile reported once
+ * the last byte has been consumed. A skip ends the verification, so that the underlying stream can skip
+ * without downloading the skipped bytes.
+ */
+final class UfileChecksumInputStream extends FilterInputStream {
+
+    private final String blobName;
+    private final String expectedEtag;
+    private final long length;
+    private final UfileEtag etag = new UfileEtag();
+    private long read;
+    private boolean verified;
+
+    UfileChecksumInputStream(InputStream in, String blobName, String expectedEtag, long length) {
+        super(in);
+        this.blobName = blobName;
+        this.expectedEtag = expectedEtag;
+        this.length = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0 && verified == false) {
+            etag.update(b, off, n);
+            read += n;
+        }
+        if (n < 0 || read == length) {
+            verify();
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //跳过部分内容后无法再校验整个对象
+        verified = true;
+        return in.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void verify() throws IOException {
+        if (verified || read != length) {
+            return;
+        }
+        verified = true;
+        String computed = etag.etag();
+        if (UfileEtag.matches(computed, expectedEtag) == false) {
+            throw new IOException("checksum mismatch for blob [" + blobName + "], ufile reported etag [" + expectedEtag
+                    + "] but the downloaded content has etag [" + computed + "]");
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.UfileClient;
+import cn.ucloud.ufile.api.object.ObjectApiBuilder;
+import cn.ucloud.ufile.api.object.ObjectConfig;
+import cn.ucloud.ufile.auth.ObjectAuthorization;
+import cn.ucloud.ufile.auth.UfileObjectLocalAuthorization;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.hash.MessageDigests;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Node-wide registry of UFile clients. Repositories that point at the same endpoint with the same
+ * credentials share one client; it is reference counted and dropped once the last repository using it
+ * has been closed.
+ */
+final class UfileClientRegistry {
+    private static final Logger logger = LogManager.getLogger(UfileClientRegistry.class);
+
+    private final Map<String, Entry> clients = new HashMap<>();
+
+    /**
+     * Returns a reference to the client for the given endpoint and credentials, creating it if needed.
+     * Every reference must be released exactly once.
+     */
+    synchronized Reference acquire(String endpoint, String publicKey, String privateKey) {
+        String id = clientId(endpoint, publicKey, privateKey);
+        Entry entry = clients.get(id);
+        if (entry == null) {
+            logger.debug("creating ufile client for endpoint [{}]", endpoint);
+            entry = new Entry(id, createClient(endpoint, publicKey, privateKey));
+            clients.put(id, entry);
+        }
+        entry.refCount++;
+        return new Reference(entry);
+    }
+
+    synchronized int size() {
+        return clients.size();
+    }
+
+    private synchronized void release(Entry entry) {
+        if (--entry.refCount == 0) {
+            logger.debug("releasing ufile client [{}]", entry.id);
+            clients.remove(entry.id);
+        }
+    }
+
+    private static ObjectApiBuilder createClient(String endpoint, String publicKey, String privateKey) {
+        //构造签名对象
+        ObjectAuthorization objectAuthorizer = new UfileObjectLocalAuthorization(publicKey, privateKey);
+        ObjectConfig config = new ObjectConfig(endpoint);
+        return UfileClient.object(objectAuthorizer, config);
+    }
+
+    //私钥只以摘要形式出现在键中
+    private static String clientId(String endpoint, String publicKey, String privateKey) {
+        byte[] digest = MessageDigests.sha256().digest(String.valueOf(privateKey).getBytes(StandardCharsets.UTF_8));
+        return endpoint + "/" + publicKey + "/" + MessageDigests.toHexString(digest);
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final ObjectApiBuilder client;
+        private int refCount;
+
+        private Entry(String id, ObjectApiBuilder client) {
+            this.id = id;
+            this.client = client;
+        }
+    }
+
+    final class Reference {
+        private final Entry entry;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reference(Entry entry) {
+            this.entry = entry;
+        }
+
+        ObjectApiBuilder client() {
+            return entry.client;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                UfileClientRegistry.this.release(entry);
+            }
+        }
+    }
+}
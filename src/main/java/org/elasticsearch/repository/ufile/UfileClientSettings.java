@@ -3,6 +3,7 @@ package org.elasticsearch.repository.ufile;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 
 import static org.elasticsearch.common.settings.Setting.*;
 
@@ -12,21 +13,95 @@ public class UfileClientSettings {
     private static final ByteSizeValue MAX_CHUNK_SIZE = new ByteSizeValue(1, ByteSizeUnit.GB);
 
     public static final Setting<String> PUBLIC_KEY =
-            Setting.simpleString("public_key", Property.NodeScope, Property.Dynamic);
+            Setting.simpleString("public_key", Property.NodeScope);
     public static final Setting<String> PRIVATE_KEY = Setting
-            .simpleString("private_key", Property.NodeScope, Property.Dynamic);
+            .simpleString("private_key", Property.NodeScope);
     public static final Setting<String> ENDPOINT =
-            Setting.simpleString("endpoint", Property.NodeScope, Property.Dynamic);
+            Setting.simpleString("endpoint", Property.NodeScope);
 
     //    public static final Setting<String> SECURITY_TOKEN = Setting
 //            .simpleString("security_token", Setting.Property.NodeScope, Setting.Property.Dynamic);
     public static final Setting<String> BUCKET =
-            simpleString("bucket", Property.NodeScope, Property.Dynamic);
+            simpleString("bucket", Property.NodeScope);
     public static final Setting<String> BASE_PATH =
-            simpleString("base_path", Property.NodeScope, Property.Dynamic);
+            simpleString("base_path", Property.NodeScope);
     public static final Setting<Boolean> COMPRESS =
-            boolSetting("compress", false, Property.NodeScope, Property.Dynamic);
+            boolSetting("compress", false, Property.NodeScope);
     public static final Setting<ByteSizeValue> CHUNK_SIZE =
             byteSizeSetting("chunk_size", MAX_CHUNK_SIZE, MIN_CHUNK_SIZE, MAX_CHUNK_SIZE,
-                    Property.NodeScope, Property.Dynamic);
+                    Property.NodeScope);
+    public static final Setting<Integer> MAX_CONCURRENT_PARTS =
+            intSetting("max_concurrent_parts", 16, 1, 64, Property.NodeScope);
+    public static final Setting<Boolean> ADAPTIVE_PART_CONCURRENCY =
+            boolSetting("adaptive_part_concurrency", true, Property.NodeScope);
+    public static final Setting<ByteSizeValue> MULTIPART_THRESHOLD =
+            byteSizeSetting("multipart_threshold", new ByteSizeValue(16, ByteSizeUnit.MB), new ByteSizeValue(4, ByteSizeUnit.MB),
+                    new ByteSizeValue(64, ByteSizeUnit.MB), Property.NodeScope);
+    public static final Setting<ByteSizeValue> PARALLEL_DOWNLOAD_THRESHOLD =
+            byteSizeSetting("parallel_download_threshold", new ByteSizeValue(64, ByteSizeUnit.MB),
+                    Property.NodeScope);
+    public static final Setting<Integer> MAX_CONCURRENT_RANGES =
+            intSetting("max_concurrent_ranges", 4, 1, 64, Property.NodeScope);
+    public static final Setting<ByteSizeValue> DOWNLOAD_RANGE_SIZE =
+            byteSizeSetting("download_range_size", new ByteSizeValue(8, ByteSizeUnit.MB), MIN_CHUNK_SIZE,
+                    new ByteSizeValue(64, ByteSizeUnit.MB), Property.NodeScope);
+    public static final Setting<Integer> MAX_RETRIES =
+            intSetting("max_retries", 3, 0, 20, Property.NodeScope);
+    public static final Setting<TimeValue> RETRY_BACKOFF =
+            positiveTimeSetting("retry_backoff", TimeValue.timeValueMillis(200), Property.NodeScope);
+    public static final Setting<TimeValue> RETRY_MAX_BACKOFF =
+            positiveTimeSetting("retry_max_backoff", TimeValue.timeValueSeconds(20), Property.NodeScope);
+    public static final Setting<Boolean> UPLOAD_JOURNAL =
+            boolSetting("upload_journal", true, Property.NodeScope);
+    public static final Setting<Integer> MAX_CONCURRENT_DELETES =
+            intSetting("max_concurrent_deletes", 16, 1, 128, Property.NodeScope);
+    public static final Setting<Integer> LIST_PAGE_SIZE =
+            intSetting("list_page_size", 1000, 1, 1000, Property.NodeScope);
+    public static final Setting<Integer> DOWNLOAD_URL_CACHE_SIZE =
+            intSetting("download_url_cache_size", 10000, 0, Property.NodeScope);
+    public static final Setting<Boolean> METADATA_CACHE_ENABLED =
+            boolSetting("metadata_cache.enabled", false, Property.NodeScope);
+    public static final Setting<ByteSizeValue> METADATA_CACHE_SIZE =
+            byteSizeSetting("metadata_cache.size", new ByteSizeValue(32, ByteSizeUnit.MB), Property.NodeScope);
+    public static final Setting<ByteSizeValue> METADATA_CACHE_MAX_BLOB_SIZE =
+            byteSizeSetting("metadata_cache.max_blob_size", new ByteSizeValue(1, ByteSizeUnit.MB), new ByteSizeValue(0),
+                    new ByteSizeValue(16, ByteSizeUnit.MB), Property.NodeScope);
+    public static final Setting<TimeValue> METADATA_CACHE_TTL =
+            positiveTimeSetting("metadata_cache.ttl", TimeValue.timeValueMinutes(30), Property.NodeScope);
+    public static final Setting<Double> THROTTLE_REQUESTS_PER_SEC =
+            doubleSetting("throttle.requests_per_sec", 0, 0, Property.NodeScope);
+    public static final Setting<Boolean> THROTTLE_ADAPTIVE_CONCURRENCY =
+            boolSetting("throttle.adaptive_concurrency", true, Property.NodeScope);
+    public static final Setting<Integer> THROTTLE_MAX_CONCURRENCY =
+            intSetting("throttle.max_concurrency", 64, 1, 1024, Property.NodeScope);
+    public static final Setting<ByteSizeValue> MAX_UPLOAD_BYTES_PER_SEC =
+            byteSizeSetting("max_upload_bytes_per_sec", new ByteSizeValue(0), Property.NodeScope);
+    public static final Setting<ByteSizeValue> MAX_DOWNLOAD_BYTES_PER_SEC =
+            byteSizeSetting("max_download_bytes_per_sec", new ByteSizeValue(0), Property.NodeScope);
+    public static final Setting<Integer> SMALL_BLOB_PIPELINE_MAX_IN_FLIGHT =
+            intSetting("small_blob_pipeline.max_in_flight", 0, 0, 256, Property.NodeScope);
+    public static final Setting<ByteSizeValue> SMALL_BLOB_PIPELINE_MAX_BLOB_SIZE =
+            byteSizeSetting("small_blob_pipeline.max_blob_size", new ByteSizeValue(1, ByteSizeUnit.MB), new ByteSizeValue(0),
+                    new ByteSizeValue(4, ByteSizeUnit.MB), Property.NodeScope);
+    public static final Setting<Boolean> VERIFY_CHECKSUMS =
+            boolSetting("verify_checksums", true, Property.NodeScope);
+
+    //ufile sdk的http客户端是全局共享的，以下为节点级配置，在elasticsearch.yml中设置
+    public static final Setting<Integer> HTTP_MAX_IDLE_CONNECTIONS =
+            intSetting("ufile.http.max_idle_connections", 64, 1, Property.NodeScope);
+    public static final Setting<TimeValue> HTTP_KEEP_ALIVE =
+            positiveTimeSetting("ufile.http.keep_alive", TimeValue.timeValueMinutes(5), Property.NodeScope);
+    public static final Setting<TimeValue> HTTP_CONNECT_TIMEOUT =
+            positiveTimeSetting("ufile.http.connect_timeout", TimeValue.timeValueSeconds(10), Property.NodeScope);
+    public static final Setting<TimeValue> HTTP_READ_TIMEOUT =
+            positiveTimeSetting("ufile.http.read_timeout", TimeValue.timeValueSeconds(60), Property.NodeScope);
+    public static final Setting<TimeValue> HTTP_WRITE_TIMEOUT =
+            positiveTimeSetting("ufile.http.write_timeout", TimeValue.timeValueSeconds(60), Property.NodeScope);
+
+    //节点本地的磁盘块缓存，所有仓库共用，大小为0时不启用
+    public static final Setting<ByteSizeValue> BLOCK_CACHE_SIZE =
+            byteSizeSetting("ufile.block_cache.size", new ByteSizeValue(0), Property.NodeScope);
+    public static final Setting<ByteSizeValue> BLOCK_CACHE_BLOCK_SIZE =
+            byteSizeSetting("ufile.block_cache.block_size", new ByteSizeValue(8, ByteSizeUnit.MB),
+                    new ByteSizeValue(1, ByteSizeUnit.MB), new ByteSizeValue(64, ByteSizeUnit.MB), Property.NodeScope);
 }
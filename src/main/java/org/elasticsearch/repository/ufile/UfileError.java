@@ -0,0 +1,123 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.bean.UfileErrorBean;
+import cn.ucloud.ufile.exception.UfileServerException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * A UFile server error, classified by what the caller should do about it. The SDK only reports the
+ * HTTP status inside the JSON message of {@link UfileServerException}, so the message is parsed once
+ * when the request fails and the result travels with the exception as a {@link UfileRequestException}.
+ */
+final class UfileError {
+
+    enum Kind {
+        /** The object, bucket or upload does not exist. */
+        NOT_FOUND(false),
+        /** UFile is overloaded and asks the client to slow down. */
+        THROTTLED(true),
+        /** A transient server-side failure, the request may succeed when sent again. */
+        RETRYABLE_SERVER(true),
+        /** The credentials are wrong or lack permission, retrying cannot help. */
+        AUTH(false),
+        /** Any other error, retrying cannot help. */
+        FATAL(false);
+
+        private final boolean retryable;
+
+        Kind(boolean retryable) {
+            this.retryable = retryable;
+        }
+    }
+
+    private static final Gson GSON = new Gson();
+
+    private final Kind kind;
+    private final int responseCode;
+    private final int retCode;
+
+    private UfileError(Kind kind, int responseCode, int retCode) {
+        this.kind = kind;
+        this.responseCode = responseCode;
+        this.retCode = retCode;
+    }
+
+    /**
+     * The classification of {@code e}, parsed from its message unless it has been classified already.
+     */
+    static UfileError of(UfileServerException e) {
+        if (e instanceof UfileRequestException) {
+            return ((UfileRequestException) e).error();
+        }
+        return parse(e.getMessage());
+    }
+
+    static UfileError parse(String message) {
+        UfileErrorBean errorBean = null;
+        //sdk自身抛出的错误不是json，不必尝试解析
+        if (message != null && message.startsWith("{")) {
+            try {
+                errorBean = GSON.fromJson(message, UfileErrorBean.class);
+            } catch (JsonParseException e) {
+                errorBean = null;
+            }
+        }
+        if (errorBean == null) {
+            return new UfileError(Kind.RETRYABLE_SERVER, -1, -1);
+        }
+        return new UfileError(classify(errorBean.getResponseCode()), errorBean.getResponseCode(), errorBean.getRetCode());
+    }
+
+    static Kind classify(int responseCode) {
+        switch (responseCode) {
+            case 404:
+                return Kind.NOT_FOUND;
+            case 429:
+            case 503:
+                return Kind.THROTTLED;
+            case 401:
+            case 403:
+                return Kind.AUTH;
+            case 408:
+                return Kind.RETRYABLE_SERVER;
+            default:
+                //无法解析的响应多来自网关，按可重试处理
+                return responseCode >= 500 || responseCode < 0 ? Kind.RETRYABLE_SERVER : Kind.FATAL;
+        }
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    int responseCode() {
+        return responseCode;
+    }
+
+    int retCode() {
+        return retCode;
+    }
+
+    boolean isNotFound() {
+        return kind == Kind.NOT_FOUND;
+    }
+
+    //请求的范围从对象末尾之后开始
+    boolean isRangeNotSatisfiable() {
+        return responseCode == 416;
+    }
+
+    boolean isThrottled() {
+        return kind == Kind.THROTTLED;
+    }
+
+    boolean isRetryable() {
+        return kind.retryable;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " (http " + responseCode + ", ret code " + retCode + ")";
+    }
+}
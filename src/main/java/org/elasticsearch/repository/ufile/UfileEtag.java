@@ -0,0 +1,83 @@
+package org.elasticsearch.repository.ufile;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Computes the ETag UFile assigns to an object, incrementally as the data goes by. The content is hashed
+ * in blocks of 4MB: a single block gives {@code urlsafe_base64(0x16 + sha1(block))}, several blocks give
+ * {@code urlsafe_base64(0x96 + sha1(sha1(block1) + sha1(block2) + ...))}.
+ */
+final class UfileEtag {
+
+    static final int BLOCK_SIZE = 4 << 20;
+    private static final byte SINGLE_BLOCK = 0x16;
+    private static final byte MULTI_BLOCK = (byte) 0x96;
+
+    private final MessageDigest block = sha1();
+    private final List<byte[]> blockDigests = new ArrayList<>();
+    private int blockFill;
+
+    void update(byte[] b, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - blockFill);
+            block.update(b, off, n);
+            blockFill += n;
+            off += n;
+            len -= n;
+            if (blockFill == BLOCK_SIZE) {
+                blockDigests.add(block.digest());
+                blockFill = 0;
+            }
+        }
+    }
+
+    /**
+     * The ETag of the data seen so far. May only be called once.
+     */
+    String etag() {
+        if (blockFill > 0 || blockDigests.isEmpty()) {
+            blockDigests.add(block.digest());
+        }
+        byte[] etag = new byte[21];
+        if (blockDigests.size() == 1) {
+            etag[0] = SINGLE_BLOCK;
+            System.arraycopy(blockDigests.get(0), 0, etag, 1, 20);
+        } else {
+            MessageDigest all = sha1();
+            for (byte[] digest : blockDigests) {
+                all.update(digest);
+            }
+            etag[0] = MULTI_BLOCK;
+            System.arraycopy(all.digest(), 0, etag, 1, 20);
+        }
+        return Base64.getUrlEncoder().encodeToString(etag);
+    }
+
+    static String of(byte[] b, int off, int len) {
+        UfileEtag etag = new UfileEtag();
+        etag.update(b, off, len);
+        return etag.etag();
+    }
+
+    /**
+     * Whether an ETag reported by UFile matches the computed one. A missing ETag cannot be checked and matches.
+     */
+    static boolean matches(String computed, String reported) {
+        if (reported == null || reported.isEmpty()) {
+            return true;
+        }
+        return computed.equals(reported.replace("\"", ""));
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
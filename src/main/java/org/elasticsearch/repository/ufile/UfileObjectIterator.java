@@ -0,0 +1,80 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.bean.ObjectInfoBean;
+import cn.ucloud.ufile.bean.ObjectListBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Lazily iterates over the objects under a prefix, one listing page at a time. As soon as a page
+ * arrives the request for the following page is sent in the background, so the caller processes
+ * page {@code n} while page {@code n + 1} is in flight. Only two pages are ever held on the heap.
+ * <p>
+ * Listing failures are thrown as {@link UncheckedIOException}.
+ */
+final class UfileObjectIterator implements Iterator<ObjectInfoBean> {
+
+    /**
+     * Fetches the listing page that starts after {@code marker}, or the first page if it is {@code null}.
+     */
+    interface PageFetcher {
+        ObjectListBean fetch(String marker) throws IOException;
+    }
+
+    private final PageFetcher fetcher;
+    private final ExecutorService executor;
+    private Iterator<ObjectInfoBean> current = Collections.emptyIterator();
+    private Future<ObjectListBean> next;
+
+    UfileObjectIterator(PageFetcher fetcher, ExecutorService executor) {
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.next = executor.submit(() -> fetcher.fetch(null));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (current.hasNext() == false) {
+            if (next == null) {
+                return false;
+            }
+            ObjectListBean page = await(next);
+            String marker = page.getNextMarker();
+            next = marker != null && marker.isEmpty() == false ? executor.submit(() -> fetcher.fetch(marker)) : null;
+            List<ObjectInfoBean> objects = page.getObjectList();
+            current = objects == null ? Collections.emptyIterator() : objects.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public ObjectInfoBean next() {
+        if (hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    private static ObjectListBean await(Future<ObjectListBean> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("interrupted while listing objects", e));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new UncheckedIOException(new IOException("failed to list objects", cause));
+        }
+    }
+}
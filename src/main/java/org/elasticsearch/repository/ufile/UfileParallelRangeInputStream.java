@@ -0,0 +1,310 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.core.internal.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads a large object as consecutive byte ranges that are downloaded concurrently, and hands them
+ * back to the caller as one ordered {@link InputStream}. At most {@code window} ranges are in flight
+ * at any time, each one filling a buffer borrowed from a shared {@link UfileBufferPool}; with a window
+ * of one the next range is prefetched while the current one is consumed. A skip beyond the ranges
+ * already requested drops them and continues at the range that holds the target position. Dropped
+ * ranges are not interrupted: they stop after their current read, close their stream and hand their
+ * buffer back to the pool themselves, or have it handed back here if they had already completed.
+ */
+final class UfileParallelRangeInputStream extends InputStream {
+
+    /**
+     * Opens a stream over the byte range {@code [start, end)} of the object.
+     */
+    interface RangeOpener {
+        InputStream open(long start, long end) throws IOException;
+    }
+
+    private final String key;
+    private final long length;
+    private final int rangeSize;
+    private final int rangeCount;
+    private final ExecutorService executor;
+    private final UfileBufferPool pool;
+    private final RangeOpener opener;
+    private final int window;
+    private final Deque<RangeTask> inFlight = new ArrayDeque<>();
+
+    //交给第一个范围的任务后置为null，由该任务负责关闭
+    private InputStream first;
+    private int nextRange;
+    private int currentRange = -1;
+    private byte[] current;
+    private int currentPos;
+    private int currentLimit;
+    //跳转后第一个范围中需要跳过的字节数
+    private int pendingOffset;
+    private boolean closed;
+
+    /**
+     * @param first  an already opened stream positioned at the start of the object, used to serve the first range
+     *               so that the initial GET is not wasted
+     * @param window the maximum number of ranges downloaded concurrently
+     */
+    UfileParallelRangeInputStream(String key, InputStream first, long length, int window,
+                                  ExecutorService executor, UfileBufferPool pool, RangeOpener opener) {
+        this.key = key;
+        this.first = first;
+        this.length = length;
+        this.rangeSize = pool.bufferSize();
+        this.rangeCount = (int) ((length + rangeSize - 1) / rangeSize);
+        this.executor = executor;
+        this.pool = pool;
+        this.opener = opener;
+        this.window = window;
+        for (int i = 0; i < window && nextRange < rangeCount; i++) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        final int range = nextRange++;
+        final long start = (long) range * rangeSize;
+        InputStream source = null;
+        if (range == 0) {
+            source = first;
+            first = null;
+        }
+        RangeTask task = new RangeTask(start, rangeLength(range), source);
+        try {
+            task.future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            IOUtils.closeWhileHandlingException(source);
+            throw e;
+        }
+        inFlight.add(task);
+    }
+
+    //丢弃在途的范围
+    private void abandonInFlight() {
+        for (RangeTask task : inFlight) {
+            task.abandon();
+        }
+        inFlight.clear();
+    }
+
+    private int rangeLength(int range) {
+        return (int) Math.min(rangeSize, length - (long) range * rangeSize);
+    }
+
+    private boolean ensureCurrent() throws IOException {
+        if (closed) {
+            throw new IOException("stream for [" + key + "] is closed");
+        }
+        if (current != null && currentPos < currentLimit) {
+            return true;
+        }
+        if (current != null) {
+            pool.release(current);
+            current = null;
+        }
+        RangeTask next = inFlight.poll();
+        if (next == null) {
+            return false;
+        }
+        if (nextRange < rangeCount) {
+            schedule();
+        }
+        try {
+            current = next.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading [" + key + "]", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("failed to read [" + key + "]", cause);
+        }
+        currentRange++;
+        currentPos = pendingOffset;
+        pendingOffset = 0;
+        currentLimit = rangeLength(currentRange);
+        if (currentPos >= currentLimit) {
+            return ensureCurrent();
+        }
+        return true;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed || n <= 0) {
+            return 0;
+        }
+        long position = Math.min(length, current == null ? (long) (currentRange + 1) * rangeSize + pendingOffset
+                : (long) currentRange * rangeSize + currentPos);
+        long target = position + Math.min(n, length - position);
+        if (current != null && target < (long) currentRange * rangeSize + currentLimit) {
+            currentPos += (int) (target - position);
+            return target - position;
+        }
+        int targetRange = (int) (target / rangeSize);
+        if (targetRange < nextRange && target < length) {
+            //目标所在的范围已在下载，读过去即可
+            return super.skip(target - position);
+        }
+        //丢弃在途的范围，从目标所在的范围重新开始
+        abandonInFlight();
+        if (current != null) {
+            pool.release(current);
+            current = null;
+        }
+        if (target == length) {
+            currentRange = rangeCount - 1;
+            nextRange = rangeCount;
+            pendingOffset = 0;
+            return target - position;
+        }
+        currentRange = targetRange - 1;
+        nextRange = targetRange;
+        pendingOffset = (int) (target - (long) targetRange * rangeSize);
+        for (int i = 0; i < window && nextRange < rangeCount; i++) {
+            schedule();
+        }
+        return target - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (ensureCurrent() == false) {
+            return -1;
+        }
+        return current[currentPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (ensureCurrent() == false) {
+            return -1;
+        }
+        int n = Math.min(len, currentLimit - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null || closed ? 0 : currentLimit - currentPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        abandonInFlight();
+        if (current != null) {
+            pool.release(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Downloads one range into a pooled buffer. Once abandoned, the task stops after its current read
+     * and releases its buffer; a buffer that was already handed to the future is released by
+     * {@link #abandon()} instead.
+     */
+    private final class RangeTask implements Callable<byte[]> {
+        private final long start;
+        private final int len;
+        private final InputStream source;
+        private Future<byte[]> future;
+
+        private boolean abandoned;
+        private boolean completed;
+
+        private RangeTask(long start, int len, InputStream source) {
+            this.start = start;
+            this.len = len;
+            this.source = source;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            if (isAbandoned()) {
+                if (source != null) {
+                    source.close();
+                }
+                return null;
+            }
+            byte[] buffer = pool.acquire();
+            boolean success = false;
+            try (InputStream in = source != null ? source : opener.open(start, start + len)) {
+                int filled = 0;
+                while (filled < len && isAbandoned() == false) {
+                    int read = in.read(buffer, filled, len - filled);
+                    if (read < 0) {
+                        break;
+                    }
+                    filled += read;
+                }
+                if (isAbandoned()) {
+                    return null;
+                }
+                if (filled != len) {
+                    throw new IOException("premature end of range [" + start + "-" + (start + len) + "] of [" + key
+                            + "], got [" + filled + "] of [" + len + "] bytes");
+                }
+                success = complete();
+                return success ? buffer : null;
+            } finally {
+                if (success == false) {
+                    pool.release(buffer);
+                }
+            }
+        }
+
+        private synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+
+        //与abandon互斥，保证缓冲区只由一方归还
+        private synchronized boolean complete() {
+            if (abandoned) {
+                return false;
+            }
+            completed = true;
+            return true;
+        }
+
+        void abandon() {
+            boolean done;
+            synchronized (this) {
+                abandoned = true;
+                done = completed;
+            }
+            if (done == false) {
+                return;
+            }
+            //任务已经交出缓冲区，future马上会完成
+            try {
+                pool.release(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // cannot happen once completed
+            }
+        }
+    }
+}
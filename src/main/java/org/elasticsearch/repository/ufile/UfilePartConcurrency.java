@@ -0,0 +1,84 @@
+package org.elasticsearch.repository.ufile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Chooses how many parts of a multipart upload are sent at once, per repository. The throughput of
+ * completed uploads is averaged at the current level; after a few uploads the level is moved one step,
+ * in the same direction while throughput improves and back once it drops. A plateau steps down, so the
+ * level settles at the smallest concurrency that still reaches the available bandwidth. Uploads with
+ * fewer parts than the current level never use more connections than they have parts, and are not
+ * sampled since they say nothing about the current level.
+ */
+final class UfilePartConcurrency {
+    private static final Logger logger = LogManager.getLogger(UfilePartConcurrency.class);
+
+    //新样本的权重
+    private static final double ALPHA = 0.3;
+    //每个并发数至少观察的上传数
+    private static final int SAMPLES_PER_STEP = 3;
+    //吞吐变化小于该比例时视为持平
+    private static final double MIN_GAIN = 0.05;
+    private static final int INITIAL_CONCURRENCY = 4;
+
+    private final String repository;
+    private final int maxConcurrency;
+    private final boolean adaptive;
+
+    private int concurrency;
+    private int direction = 1;
+    //当前并发数下的平均吞吐（字节/秒），以及上一个并发数的平均吞吐
+    private double throughput;
+    private double previousThroughput;
+    private int samples;
+
+    UfilePartConcurrency(String repository, int maxConcurrency, boolean adaptive) {
+        this.repository = repository;
+        this.maxConcurrency = maxConcurrency;
+        this.adaptive = adaptive;
+        this.concurrency = adaptive ? Math.min(INITIAL_CONCURRENCY, maxConcurrency) : maxConcurrency;
+    }
+
+    /**
+     * The number of parts to upload at once for an upload of {@code parts} parts.
+     */
+    synchronized int concurrency(int parts) {
+        return Math.max(1, Math.min(concurrency, parts));
+    }
+
+    /**
+     * Records a completed upload that ran with {@code used} parts in flight.
+     */
+    synchronized void onUpload(int used, long bytes, long nanos) {
+        if (adaptive == false || used != concurrency || nanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1_000_000_000.0 / nanos;
+        throughput = samples == 0 ? sample : ALPHA * sample + (1 - ALPHA) * throughput;
+        if (++samples < SAMPLES_PER_STEP) {
+            return;
+        }
+        if (previousThroughput > 0) {
+            if (throughput < previousThroughput * (1 - MIN_GAIN)) {
+                //变差，往回走
+                direction = -direction;
+            } else if (throughput < previousThroughput * (1 + MIN_GAIN)) {
+                //持平，减少连接数
+                direction = -1;
+            }
+        }
+        int step = Math.max(1, concurrency / 4);
+        int next = Math.max(1, Math.min(maxConcurrency, concurrency + direction * step));
+        if (next == concurrency) {
+            //已到边界，下次反向探测
+            direction = -direction;
+        } else {
+            logger.debug("[{}] part concurrency [{}] -> [{}], throughput [{}] bytes/s", repository, concurrency, next, (long) throughput);
+            concurrency = next;
+        }
+        previousThroughput = throughput;
+        throughput = 0;
+        samples = 0;
+    }
+}
@@ -30,13 +30,16 @@ public class UfileRepository extends BlobStoreRepository {
     private final ByteSizeValue chunkSize;
     private final String bucket;
     private final UfileService service;
+    private final UfileBlockCache blockCache;
     private final Settings settings;
+    private final ThreadPool threadPool;
 
 
     public UfileRepository(RepositoryMetaData metadata,
                            Environment env,
                            NamedXContentRegistry namedXContentRegistry,
                            UfileService service,
+                           UfileBlockCache blockCache,
                            final ThreadPool threadPool) {
         super(metadata,
                 env.settings(),
@@ -44,7 +47,9 @@ public class UfileRepository extends BlobStoreRepository {
                 namedXContentRegistry,
                 threadPool);
         this.settings = env.settings();
+        this.threadPool = threadPool;
         this.service = service;
+        this.blockCache = blockCache;
         this.bucket = getSetting(UfileClientSettings.BUCKET, metadata);
         String basePath = UfileClientSettings.BASE_PATH.get(metadata.settings());
         if (Strings.hasLength(basePath)) {
@@ -64,7 +69,7 @@ public class UfileRepository extends BlobStoreRepository {
 
     @Override
     protected UfileBlobStore createBlobStore() {
-        return new UfileBlobStore(settings, bucket, service);
+        return new UfileBlobStore(settings, getMetadata(), bucket, service, blockCache, threadPool);
     }
 
     @Override
@@ -77,6 +82,16 @@ public class UfileRepository extends BlobStoreRepository {
         return super.getBlobStore();
     }
 
+    @Override
+    protected void doClose() {
+        try {
+            super.doClose();
+        } finally {
+            //blob store可能从未创建过，这里也要释放service
+            service.shutdown();
+        }
+    }
+
     @Override
     protected BlobPath basePath() {
         return basePath;
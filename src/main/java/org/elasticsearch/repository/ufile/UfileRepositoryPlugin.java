@@ -1,38 +1,122 @@
 package org.elasticsearch.repository.ufile;
 
+import cn.ucloud.ufile.UfileClient;
+import cn.ucloud.ufile.http.HttpClient;
 import org.elasticsearch.SpecialPermission;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.RepositoryPlugin;
 import org.elasticsearch.repositories.Repository;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
 import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-public class UfileRepositoryPlugin extends Plugin implements RepositoryPlugin {
+public class UfileRepositoryPlugin extends Plugin implements RepositoryPlugin, ActionPlugin {
+
+    //进行中的分片上传记录所在目录，位于节点的数据目录下，用于节点崩溃后的清理
+    private static final String UPLOAD_JOURNAL_DIR = "ufile_upload_journal";
+    //磁盘块缓存所在目录，位于节点的数据目录下
+    private static final String BLOCK_CACHE_DIR = "ufile_block_cache";
+
+    //整体对象操作（异步接口）使用的线程池
+    static final String THREAD_POOL = "ufile";
+    //分片上传、范围下载、并发删除等子请求使用的线程池
+    static final String TRANSFER_THREAD_POOL = "ufile_transfer";
+
+    //同一endpoint和密钥的仓库共用一个客户端
+    private final UfileClientRegistry clientRegistry = new UfileClientRegistry();
+    //本节点上各仓库的请求统计
+    private final UfileStatsRegistry statsRegistry = new UfileStatsRegistry();
+    //本节点所有仓库共用的磁盘块缓存，未启用时为null
+    private UfileBlockCache blockCache;
 
     static {
         SpecialPermission.check();
         AccessController.doPrivileged((PrivilegedAction<Void>) () -> null);
     }
 
-    protected UfileService createStorageService(Settings settings, RepositoryMetaData metadata) {
-        return new UfileServiceImpl(settings, metadata);
+    public UfileRepositoryPlugin(Settings settings) {
+        configureHttpClient(settings);
+    }
+
+    //配置全局共享的http客户端，需在第一次创建ufile客户端之前完成。
+    //插件只发出同步请求，不配置异步请求的线程池
+    private static void configureHttpClient(Settings settings) {
+        HttpClient.Config httpConfig = new HttpClient.Config(
+                UfileClientSettings.HTTP_MAX_IDLE_CONNECTIONS.get(settings),
+                UfileClientSettings.HTTP_KEEP_ALIVE.get(settings).millis(), TimeUnit.MILLISECONDS)
+                .setTimeout(UfileClientSettings.HTTP_CONNECT_TIMEOUT.get(settings).millis(),
+                        UfileClientSettings.HTTP_READ_TIMEOUT.get(settings).millis(),
+                        UfileClientSettings.HTTP_WRITE_TIMEOUT.get(settings).millis());
+        SocketAccess.doPrivilegedVoid(() -> UfileClient.configure(new UfileClient.Config(httpConfig)));
+    }
+
+    protected UfileService createStorageService(Environment env, RepositoryMetaData metadata, ThreadPool threadPool) {
+        return new UfileServiceImpl(env.settings(), metadata, env.dataFiles()[0].resolve(UPLOAD_JOURNAL_DIR), clientRegistry,
+                statsRegistry, threadPool);
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        int processors = EsExecutors.numberOfProcessors(settings);
+        // 子请求线程池的队列不设上限，每个操作自身的并发窗口已限制了在途任务数
+        return Arrays.asList(
+                new FixedExecutorBuilder(settings, THREAD_POOL, Math.min(2 * processors, 16), 1000),
+                new FixedExecutorBuilder(settings, TRANSFER_THREAD_POOL, Math.min(Math.max(8, 4 * processors), 64), -1));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.singletonList(new RestUfileStatsAction(settings, restController, statsRegistry));
+    }
+
+    //磁盘块缓存在节点启动时创建，并从目录中恢复已缓存的块
+    private static UfileBlockCache createBlockCache(Environment env) {
+        long size = UfileClientSettings.BLOCK_CACHE_SIZE.get(env.settings()).getBytes();
+        if (size <= 0) {
+            return null;
+        }
+        int blockSize = Math.toIntExact(UfileClientSettings.BLOCK_CACHE_BLOCK_SIZE.get(env.settings()).getBytes());
+        try {
+            return new UfileBlockCache(env.dataFiles()[0].resolve(BLOCK_CACHE_DIR), size, blockSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to create ufile block cache", e);
+        }
     }
 
     @Override
     public Map<String, Repository.Factory> getRepositories(Environment env, NamedXContentRegistry namedXContentRegistry,final ThreadPool threadPool) {
+        this.blockCache = createBlockCache(env);
         return Collections.singletonMap(UfileRepository.TYPE,
-                (metadata) -> new UfileRepository(metadata, env, namedXContentRegistry, createStorageService(env.settings(), metadata), threadPool));
+                (metadata) -> new UfileRepository(metadata, env, namedXContentRegistry, createStorageService(env, metadata, threadPool),
+                        blockCache, threadPool));
     }
 
     @Override
@@ -44,7 +128,39 @@ public class UfileRepositoryPlugin extends Plugin implements RepositoryPlugin {
                 UfileClientSettings.BUCKET,
                 UfileClientSettings.BASE_PATH,
                 UfileClientSettings.COMPRESS,
-                UfileClientSettings.CHUNK_SIZE);
+                UfileClientSettings.CHUNK_SIZE,
+                UfileClientSettings.MAX_CONCURRENT_PARTS,
+                UfileClientSettings.ADAPTIVE_PART_CONCURRENCY,
+                UfileClientSettings.MULTIPART_THRESHOLD,
+                UfileClientSettings.PARALLEL_DOWNLOAD_THRESHOLD,
+                UfileClientSettings.MAX_CONCURRENT_RANGES,
+                UfileClientSettings.DOWNLOAD_RANGE_SIZE,
+                UfileClientSettings.MAX_RETRIES,
+                UfileClientSettings.RETRY_BACKOFF,
+                UfileClientSettings.RETRY_MAX_BACKOFF,
+                UfileClientSettings.UPLOAD_JOURNAL,
+                UfileClientSettings.MAX_CONCURRENT_DELETES,
+                UfileClientSettings.LIST_PAGE_SIZE,
+                UfileClientSettings.DOWNLOAD_URL_CACHE_SIZE,
+                UfileClientSettings.METADATA_CACHE_ENABLED,
+                UfileClientSettings.METADATA_CACHE_SIZE,
+                UfileClientSettings.METADATA_CACHE_MAX_BLOB_SIZE,
+                UfileClientSettings.METADATA_CACHE_TTL,
+                UfileClientSettings.THROTTLE_REQUESTS_PER_SEC,
+                UfileClientSettings.THROTTLE_ADAPTIVE_CONCURRENCY,
+                UfileClientSettings.THROTTLE_MAX_CONCURRENCY,
+                UfileClientSettings.VERIFY_CHECKSUMS,
+                UfileClientSettings.MAX_UPLOAD_BYTES_PER_SEC,
+                UfileClientSettings.MAX_DOWNLOAD_BYTES_PER_SEC,
+                UfileClientSettings.SMALL_BLOB_PIPELINE_MAX_IN_FLIGHT,
+                UfileClientSettings.SMALL_BLOB_PIPELINE_MAX_BLOB_SIZE,
+                UfileClientSettings.HTTP_MAX_IDLE_CONNECTIONS,
+                UfileClientSettings.HTTP_KEEP_ALIVE,
+                UfileClientSettings.HTTP_CONNECT_TIMEOUT,
+                UfileClientSettings.HTTP_READ_TIMEOUT,
+                UfileClientSettings.HTTP_WRITE_TIMEOUT,
+                UfileClientSettings.BLOCK_CACHE_SIZE,
+                UfileClientSettings.BLOCK_CACHE_BLOCK_SIZE);
 
     }
 }
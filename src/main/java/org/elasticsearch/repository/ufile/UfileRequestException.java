@@ -0,0 +1,21 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.exception.UfileServerException;
+
+/**
+ * A {@link UfileServerException} that has already been classified, see {@link UfileError}.
+ */
+class UfileRequestException extends UfileServerException {
+
+    private final UfileError error;
+
+    UfileRequestException(UfileServerException cause, UfileError error) {
+        super(cause.getMessage());
+        initCause(cause);
+        this.error = error;
+    }
+
+    UfileError error() {
+        return error;
+    }
+}
@@ -0,0 +1,122 @@
+package org.elasticsearch.repository.ufile;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side flow control for the requests of one repository. Each request first takes a token
+ * from a requests-per-second bucket and its upload payload from the upload bytes-per-second bucket,
+ * then waits for a slot under an adaptive concurrency limit. Downloaded bytes are charged to the
+ * download bucket as they are read; these two buckets are the only byte throttles of a repository.
+ * The limit grows by one request per round trip while requests succeed and is halved whenever UFile
+ * answers with a throttling error (AIMD), so a repository backs off as soon as the object store
+ * signals overload.
+ */
+final class UfileRequestLimiter {
+
+    private final TokenBucket requests;
+    private final TokenBucket uploadBytes;
+    private final TokenBucket downloadBytes;
+    private final boolean adaptive;
+    private final int maxConcurrency;
+
+    private double limit;
+    private int inFlight;
+
+    /**
+     * @param requestsPerSec      maximum request rate, {@code 0} for unlimited
+     * @param uploadBytesPerSec   maximum upload rate, {@code 0} for unlimited
+     * @param downloadBytesPerSec maximum download rate, {@code 0} for unlimited
+     * @param adaptive            whether to adapt the concurrency limit to throttling errors
+     * @param maxConcurrency      upper bound of concurrent requests
+     */
+    UfileRequestLimiter(double requestsPerSec, long uploadBytesPerSec, long downloadBytesPerSec, boolean adaptive,
+                        int maxConcurrency) {
+        this.requests = requestsPerSec > 0 ? new TokenBucket(requestsPerSec) : null;
+        this.uploadBytes = uploadBytesPerSec > 0 ? new TokenBucket(uploadBytesPerSec) : null;
+        this.downloadBytes = downloadBytesPerSec > 0 ? new TokenBucket(downloadBytesPerSec) : null;
+        this.adaptive = adaptive;
+        this.maxConcurrency = maxConcurrency;
+        this.limit = maxConcurrency;
+    }
+
+    /**
+     * Blocks until a request uploading {@code payload} bytes may be sent. Must be followed by exactly one
+     * call to {@link #release(boolean)}.
+     */
+    void acquire(long payload) throws InterruptedException {
+        if (requests != null) {
+            requests.acquire(1);
+        }
+        if (uploadBytes != null && payload > 0) {
+            uploadBytes.acquire(payload);
+        }
+        synchronized (this) {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+            inFlight++;
+        }
+    }
+
+    /**
+     * Blocks until {@code payload} downloaded bytes may be consumed.
+     */
+    void chargeDownload(long payload) throws InterruptedException {
+        if (downloadBytes != null && payload > 0) {
+            downloadBytes.acquire(payload);
+        }
+    }
+
+    /**
+     * Ends a request started with {@link #acquire(long)}.
+     *
+     * @param throttled whether UFile rejected the request because it is overloaded
+     */
+    synchronized void release(boolean throttled) {
+        inFlight--;
+        if (adaptive) {
+            if (throttled) {
+                limit = Math.max(1, limit / 2);
+            } else {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    synchronized int currentLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * A token bucket that holds at most one second worth of tokens. Requests larger than the bucket are
+     * admitted by going into debt, which the following requests wait out.
+     */
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double available;
+        private long lastRefill;
+
+        TokenBucket(double tokensPerSec) {
+            this.tokensPerNano = tokensPerSec / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = tokensPerSec;
+            this.available = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        void acquire(long tokens) throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                available = Math.min(capacity, available + (now - lastRefill) * tokensPerNano);
+                lastRefill = now;
+                available -= tokens;
+                waitNanos = available >= 0 ? 0 : (long) (-available / tokensPerNano);
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
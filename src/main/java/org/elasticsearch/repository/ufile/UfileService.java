@@ -2,6 +2,7 @@ package org.elasticsearch.repository.ufile;
 
 import cn.ucloud.ufile.bean.DownloadStreamBean;
 import cn.ucloud.ufile.bean.ObjectListBean;
+import cn.ucloud.ufile.bean.ObjectProfile;
 import cn.ucloud.ufile.exception.UfileClientException;
 import cn.ucloud.ufile.exception.UfileServerException;
 
@@ -14,15 +15,34 @@ public interface UfileService {
 
     boolean doesBucketExist(String bucketName);
 
+    /**
+     * Returns the metadata of an object, e.g. its length and ETag, without downloading it.
+     */
+    ObjectProfile getObjectProfile(String bucketName, String key)
+            throws UfileServerException, UfileClientException;
+
     ObjectListBean listObjects(String bucketName, String prefix, String marker)
             throws UfileServerException, UfileClientException;
 
     DownloadStreamBean getObject(String bucketName, String key)
             throws UfileServerException, UfileClientException;
 
+    /**
+     * Downloads the byte range {@code [start, end)} of an object.
+     */
+    DownloadStreamBean getObject(String bucketName, String key, long start, long end)
+            throws UfileServerException, UfileClientException;
+
     void putObject(String bucketName, String key, InputStream input, long blobSize)
             throws UfileServerException, UfileClientException;
 
+    /**
+     * Uploads {@code data} with a single PUT. The array is sent as is and must not be modified until
+     * the call returns.
+     */
+    void putObject(String bucketName, String key, byte[] data)
+            throws UfileServerException, UfileClientException;
+
     void deleteObject(String bucketName, String key)
             throws UfileServerException, UfileClientException;
 
@@ -30,5 +50,12 @@ public interface UfileService {
                     String destinationBucketName, String destinationKey)
             throws UfileServerException, UfileClientException;
 
+    /**
+     * Renames an object within a bucket. If {@code overwrite} is false the rename fails when the
+     * destination already exists.
+     */
+    void renameObject(String bucketName, String sourceKey, String destinationKey, boolean overwrite)
+            throws UfileServerException, UfileClientException;
+
     void shutdown();
 }
@@ -1,55 +1,126 @@
 package org.elasticsearch.repository.ufile;
 
 import cn.ucloud.ufile.api.object.ObjectApiBuilder;
-import cn.ucloud.ufile.api.object.ObjectConfig;
 import cn.ucloud.ufile.api.object.multi.MultiUploadInfo;
 import cn.ucloud.ufile.api.object.multi.MultiUploadPartState;
-import cn.ucloud.ufile.auth.ObjectAuthorization;
-import cn.ucloud.ufile.auth.UfileObjectLocalAuthorization;
 import cn.ucloud.ufile.exception.UfileClientException;
 import cn.ucloud.ufile.exception.UfileServerException;
-import cn.ucloud.ufile.UfileClient;
 import cn.ucloud.ufile.bean.*;
-import cn.ucloud.ufile.util.FileUtil;
-import com.google.gson.Gson;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
+import org.elasticsearch.repository.ufile.UfileStats.Operation;
 
 
 public class UfileServiceImpl implements UfileService {
     private static final Logger logger = LogManager.getLogger(UfileServiceImpl.class);
 
-    private ObjectApiBuilder client;
+    //下载地址的有效期，缓存的地址在过期前提前失效
+    private static final int DOWNLOAD_URL_EXPIRES_SECONDS = 30 * 60;
+    private static final TimeValue DOWNLOAD_URL_CACHE_TTL = TimeValue.timeValueMinutes(25);
+    private static final String MIME_TYPE = "application/octet-stream";
 
-    public UfileServiceImpl(Settings settings, RepositoryMetaData metaData) {
-        this.client = createClient(metaData);
-    }
-
-    private ObjectApiBuilder createClient(RepositoryMetaData metaData) {
-        ObjectApiBuilder client;
-
-        String accessKeyId = UfileClientSettings.PUBLIC_KEY.get(metaData.settings());
-
-        String secretAccessKey = UfileClientSettings.PRIVATE_KEY.get(metaData.settings());
+    private final UfileClientRegistry.Reference clientReference;
+    private final ObjectApiBuilder client;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    //小于该大小的对象用put上传，否则用mput
+    private final int multipartThreshold;
+    private final int maxConcurrentParts;
+    //按观察到的吞吐选择分片上传的并发数
+    private final UfilePartConcurrency partConcurrency;
+    private final int maxRetries;
+    private final int listPageSize;
+    private final UfileBackoff backoff;
+    private final UfileUploadJournal journal;
+    private final Cache<String, String> downloadUrlCache;
+    private final UfileRequestLimiter limiter;
+    private final boolean verifyChecksums;
+    private final UfileStatsRegistry statsRegistry;
+    private final UfileStats stats;
+    //分片上传在插件的ufile_transfer线程池中执行
+    private final ExecutorService partExecutor;
+    private final Map<Integer, UfileBufferPool> partBufferPools = new ConcurrentHashMap<>();
 
-        String endpoint = UfileClientSettings.ENDPOINT.get(metaData.settings());
-
-        //构造签名对象
-        ObjectAuthorization OBJECT_AUTHORIZER = new UfileObjectLocalAuthorization(accessKeyId, secretAccessKey);
+    public UfileServiceImpl(Settings settings, RepositoryMetaData metaData, Path journalPath, UfileClientRegistry clientRegistry,
+                            UfileStatsRegistry statsRegistry, ThreadPool threadPool) {
+        this.clientReference = clientRegistry.acquire(UfileClientSettings.ENDPOINT.get(metaData.settings()),
+                UfileClientSettings.PUBLIC_KEY.get(metaData.settings()),
+                UfileClientSettings.PRIVATE_KEY.get(metaData.settings()));
+        this.client = clientReference.client();
+        this.statsRegistry = statsRegistry;
+        this.stats = statsRegistry.register(metaData.name());
+        this.maxConcurrentParts = UfileClientSettings.MAX_CONCURRENT_PARTS.get(metaData.settings());
+        this.partConcurrency = new UfilePartConcurrency(metaData.name(), maxConcurrentParts,
+                UfileClientSettings.ADAPTIVE_PART_CONCURRENCY.get(metaData.settings()));
+        this.multipartThreshold = Math.toIntExact(UfileClientSettings.MULTIPART_THRESHOLD.get(metaData.settings()).getBytes());
+        this.maxRetries = UfileClientSettings.MAX_RETRIES.get(metaData.settings());
+        this.listPageSize = UfileClientSettings.LIST_PAGE_SIZE.get(metaData.settings());
+        this.verifyChecksums = UfileClientSettings.VERIFY_CHECKSUMS.get(metaData.settings());
+        this.limiter = new UfileRequestLimiter(UfileClientSettings.THROTTLE_REQUESTS_PER_SEC.get(metaData.settings()),
+                UfileClientSettings.MAX_UPLOAD_BYTES_PER_SEC.get(metaData.settings()).getBytes(),
+                UfileClientSettings.MAX_DOWNLOAD_BYTES_PER_SEC.get(metaData.settings()).getBytes(),
+                UfileClientSettings.THROTTLE_ADAPTIVE_CONCURRENCY.get(metaData.settings()),
+                UfileClientSettings.THROTTLE_MAX_CONCURRENCY.get(metaData.settings()));
+        int urlCacheSize = UfileClientSettings.DOWNLOAD_URL_CACHE_SIZE.get(metaData.settings());
+        this.downloadUrlCache = urlCacheSize == 0 ? null : CacheBuilder.<String, String>builder()
+                .setMaximumWeight(urlCacheSize)
+                .setExpireAfterWrite(DOWNLOAD_URL_CACHE_TTL)
+                .build();
+        this.backoff = new UfileBackoff(UfileClientSettings.RETRY_BACKOFF.get(metaData.settings()),
+                UfileClientSettings.RETRY_MAX_BACKOFF.get(metaData.settings()));
+        this.journal = UfileClientSettings.UPLOAD_JOURNAL.get(metaData.settings()) && journalPath != null
+                ? new UfileUploadJournal(journalPath.resolve(metaData.name())) : null;
+        this.partExecutor = threadPool.executor(UfileRepositoryPlugin.TRANSFER_THREAD_POOL);
+        if (journal != null) {
+            abortOrphanedUploads();
+        }
+    }
 
-        ObjectConfig config = new ObjectConfig(endpoint);
+    //节点在上传中途停止时留下的记录，不论新旧，在后台中断对应的分片上传并删除记录
+    private void abortOrphanedUploads() {
+        try {
+            partExecutor.execute(() -> {
+                for (MultiUploadInfo info : journal.removeOrphaned()) {
+                    logger.debug("aborting orphaned multipart upload of [{}], uploadId:[{}]", info.getKeyName(), info.getUploadId());
+                    SocketAccess.doPrivilegedVoid(() -> abortQuietly(info));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("not cleaning up the upload journal, executor is shutting down");
+        }
+    }
 
-        client = UfileClient.object(OBJECT_AUTHORIZER, config);
-        return client;
+    //获取文件的元数据
+    @Override
+    public ObjectProfile getObjectProfile(String bucketName, String key) throws UfileServerException, UfileClientException {
+        logger.debug("UfileServiceImpl.getObjectProfile, bucket:[{}], key:[{}]", bucketName, key);
+        return execute(Operation.HEAD, 0, () -> this.client.objectProfile(key, bucketName).execute());
     }
 
     //判断文件是否存在
@@ -57,20 +128,170 @@ public class UfileServiceImpl implements UfileService {
     public boolean doesObjectExist(String bucketName, String key) throws UfileServerException, UfileClientException {
         try {
             logger.debug("UfileServiceImpl.doesObjectExist, bucket:[{}], key:[{}]", bucketName, key);
-            ObjectProfile response = this.client.objectProfile(key, bucketName).execute();
+            getObjectProfile(bucketName, key);
         } catch (UfileServerException e) {
-            //api没有提供方法获取responsecode 反序列化exception message来获取。
-            UfileErrorBean errorBean = new Gson().fromJson(e.getMessage(), UfileErrorBean.class);
-            int code = errorBean.getResponseCode();
-            if (code == 404) {
-                //404表示对象不存在 现有api只能这么处理，之后考虑改掉
+            //只有404表示对象不存在，其他错误交给调用方处理
+            if (UfileError.of(e).isNotFound()) {
                 logger.debug("UfileServiceImpl.doesObjectExist: [{}]", e.toString());
+                return false;
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    //单个ufile请求
+    @FunctionalInterface
+    interface UfileCall<T> {
+        T execute() throws UfileServerException, UfileClientException;
+    }
+
+    //所有请求都经过限流：令牌桶限制请求数和字节数，并发数按AIMD自适应调整。
+    //失败时只解析一次错误信息，分类结果随异常一起抛出
+    //每个请求的次数、字节数、失败数和延迟记入仓库的统计
+    private <T> T execute(Operation operation, long payload, UfileCall<T> call) throws UfileServerException, UfileClientException {
+        acquirePermit(payload);
+        boolean throttled = false;
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            T result = call.execute();
+            failed = false;
+            return result;
+        } catch (UfileServerException e) {
+            UfileError error = UfileError.of(e);
+            throttled = error.isThrottled();
+            throw e instanceof UfileRequestException ? e : new UfileRequestException(e, error);
+        } finally {
+            stats.record(operation, payload, System.nanoTime() - start, failed);
+            releasePermit(throttled);
+        }
+    }
+
+    //下载请求的字节数在读取响应体时才计入限流和统计，每个字节只计一次；
+    //并发名额一直占用到响应体读完或流被关闭，这样流式下载也受throttle.max_concurrency限制
+    private DownloadStreamBean executeDownload(Operation operation, UfileCall<DownloadStreamBean> call)
+            throws UfileServerException, UfileClientException {
+        acquirePermit(0);
+        boolean throttled = false;
+        boolean failed = true;
+        boolean released = true;
+        long start = System.nanoTime();
+        try {
+            DownloadStreamBean bean = call.execute();
+            if (bean != null && bean.getInputStream() != null) {
+                bean.setInputStream(new MeteredInputStream(operation, bean.getInputStream()));
+                released = false;
+            }
+            failed = false;
+            return bean;
+        } catch (UfileServerException e) {
+            UfileError error = UfileError.of(e);
+            throttled = error.isThrottled();
+            throw e instanceof UfileRequestException ? e : new UfileRequestException(e, error);
+        } finally {
+            //延迟为首字节时间
+            stats.record(operation, 0, System.nanoTime() - start, failed);
+            if (released) {
+                releasePermit(throttled);
+            }
+        }
+    }
+
+    private void acquirePermit(long payload) throws UfileClientException {
+        try {
+            limiter.acquire(payload);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UfileClientException("interrupted while waiting for request permit");
+        }
+    }
+
+    private void releasePermit(boolean throttled) {
+        if (throttled) {
+            stats.throttled();
+        }
+        limiter.release(throttled);
+        if (throttled) {
+            logger.warn("ufile throttled the request, concurrency limit is now [{}]", limiter.currentLimit());
+        }
+    }
+
+    /**
+     * The body of a download. Every byte read is charged to the byte rate limit and the stats once, and
+     * the concurrency permit of the request is released at the end of the body or when it is closed.
+     */
+    private final class MeteredInputStream extends FilterInputStream {
+        private final Operation operation;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private MeteredInputStream(Operation operation, InputStream in) {
+            super(in);
+            this.operation = operation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                release();
+            } else {
+                charge(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                release();
             } else {
-                logger.error("UfileServiceImpl.doesObjectExist: [{}]", e.toString());
+                charge(n);
             }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //跳过的字节同样经过网络传输
+            long skipped = in.skip(n);
+            charge(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
             return false;
         }
-        return true;
+
+        private void charge(long bytes) throws IOException {
+            if (bytes <= 0) {
+                return;
+            }
+            stats.addBytes(operation, bytes);
+            try {
+                limiter.chargeDownload(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for download permit");
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
     }
 
     //判断bucket是否存在
@@ -78,11 +299,11 @@ public class UfileServiceImpl implements UfileService {
     public boolean doesBucketExist(String bucketName) {
         try {
             logger.debug("UfileServiceImpl.doesBucketExist, bucket:[{}]", bucketName);
-            this.client.objectList(bucketName)
+            execute(Operation.LIST, 0, () -> this.client.objectList(bucketName)
                     .withPrefix("")
                     .withMarker("")
                     .dataLimit(1)
-                    .execute();
+                    .execute());
             logger.debug("UfileServiceImpl.doesBucketExist: true");
             return true;
         } catch (UfileClientException e) {
@@ -98,102 +319,294 @@ public class UfileServiceImpl implements UfileService {
     @Override
     public ObjectListBean listObjects(String bucketName, String prefix, String marker) throws UfileServerException, UfileClientException {
         logger.debug("UfileServiceImpl.listObjects, bucket:[{}], prefix:[{}], marker:[{}]", bucketName, prefix, marker);
-        return this.client.objectList(bucketName)
+        return execute(Operation.LIST, 0, () -> this.client.objectList(bucketName)
                 .withPrefix(prefix)
                 .withMarker(marker)
-                .dataLimit(50)
-                .execute();
+                .dataLimit(listPageSize)
+                .execute());
     }
 
     //下载文件
     @Override
     public DownloadStreamBean getObject(String bucketName, String key) throws UfileServerException, UfileClientException {
         logger.debug("UfileServiceImpl.getObject, bucket:[{}], key:[{}]", bucketName, key);
-        String url = this.client.getDownloadUrlFromPrivateBucket(key, bucketName, 30 * 60)
-                .createUrl();
-        DownloadStreamBean down_bean = this.client.getStream(url).execute();
+        String url = downloadUrl(bucketName, key);
+        DownloadStreamBean down_bean = executeDownload(Operation.GET, () -> this.client.getStream(url).execute());
         logger.debug("UfileServiceImpl.getObject, bucket:[{}], key:[{}], len:[{}]", bucketName, key, down_bean.getContentLength());
         return down_bean;
     }
 
+    //获取私有bucket的下载地址，签名结果在过期前缓存复用
+    private String downloadUrl(String bucketName, String key) throws UfileServerException, UfileClientException {
+        if (downloadUrlCache == null) {
+            return this.client.getDownloadUrlFromPrivateBucket(key, bucketName, DOWNLOAD_URL_EXPIRES_SECONDS)
+                    .createUrl();
+        }
+        String cacheKey = bucketName + "/" + key;
+        String url = downloadUrlCache.get(cacheKey);
+        if (url == null) {
+            url = this.client.getDownloadUrlFromPrivateBucket(key, bucketName, DOWNLOAD_URL_EXPIRES_SECONDS)
+                    .createUrl();
+            downloadUrlCache.put(cacheKey, url);
+        }
+        return url;
+    }
+
+    //按范围下载文件，[start, end)
+    @Override
+    public DownloadStreamBean getObject(String bucketName, String key, long start, long end) throws UfileServerException, UfileClientException {
+        logger.debug("UfileServiceImpl.getObject, bucket:[{}], key:[{}], range:[{}-{}]", bucketName, key, start, end);
+        String url = downloadUrl(bucketName, key);
+        // Range头的结束位置是包含在内的
+        return executeDownload(Operation.RANGE_GET, () -> this.client.getStream(url).withinRange(start, end - 1).execute());
+    }
+
+    //上传已在内存中的数据，不经过缓冲区复制，不论大小都用一次put
+    @Override
+    public void putObject(String bucketName, String key, byte[] data) throws UfileServerException, UfileClientException {
+        logger.debug("UfileServiceImpl.putObject, bucket:[{}], key:[{}], size:[{}]", bucketName, key, data.length);
+        putBuffer(bucketName, key, data, verifyChecksums ? UfileEtag.of(data, 0, data.length) : null);
+    }
+
+    //数据在内存中，校验失败时可以直接重传
+    private void putBuffer(String bucketName, String key, byte[] data, String expectedEtag)
+            throws UfileServerException, UfileClientException {
+        withRetries("put [" + key + "]", () -> {
+            PutObjectResultBean result = execute(Operation.PUT, data.length, () -> this.client
+                    .putObject(new ByteArrayInputStream(data), MIME_TYPE)
+                    .nameAs(key)
+                    .toBucket(bucketName)
+                    .execute());
+            verifyEtag(key, expectedEtag, result == null ? null : result.geteTag());
+            return result;
+        });
+    }
+
     //上传文件
     @Override
     public void putObject(String bucketName, String key, InputStream input, long blobSize) throws UfileServerException, UfileClientException {
         logger.debug("UfileServiceImpl.putObject, bucket:[{}], key:[{}], size:[{}]", bucketName, key, blobSize);
 
 //        String mineType = MimeTypeUtil.getMimeType(new File(key));
-        String mimeType = "application/octet-stream";
-        long mputThreshold = 10 << 10 << 10; //10m
-        if (blobSize < mputThreshold) {
-            //用put
-            this.client.putObject(input, mimeType).nameAs(key).toBucket(bucketName).execute();
+        String mimeType = MIME_TYPE;
+        if (blobSize < multipartThreshold) {
+            //用put，数据先读入与对象大小相同的缓冲区，小对象不占用阈值大小的内存
+            byte[] buffer = new byte[(int) blobSize];
+            try {
+                UfileEtag etag = verifyChecksums ? new UfileEtag() : null;
+                int len = UfileBufferPool.fill(input, buffer, (int) blobSize, etag);
+                if (len != blobSize) {
+                    throw new UfileClientException("unexpected end of stream for [" + key + "], expected ["
+                            + blobSize + "] bytes but got [" + len + "]");
+                }
+                putBuffer(bucketName, key, buffer, etag == null ? null : etag.etag());
+            } catch (IOException e) {
+                throw new UfileClientException(e.getMessage());
+            }
             return;
         } else {
             //用mput
             // 先初始化分片上环请求
             logger.debug("UfileServiceImpl.initMultiUpload");
-            MultiUploadInfo upload_info = this.client.initMultiUpload(key, mimeType, bucketName).execute();
+            MultiUploadInfo upload_info = execute(Operation.MULTIPART_INIT, 0, () -> this.client.initMultiUpload(key, mimeType, bucketName).execute());
             if (upload_info == null)
                 throw new UfileServerException("upload init null");
+            //只为节点崩溃后清理而记录，不用于续传
+            UfileUploadJournal.Entry entry = journal == null ? null : journal.start(bucketName, key, upload_info);
 
             logger.debug("UfileServiceImpl.multiUpload");
-            List<MultiUploadPartState> partStates = multiUpload(input, upload_info);
-            // 若上传分片结果列表为空，则失败，需中断上传操作。否则完成上传
-            if (partStates == null || partStates.isEmpty()) {
-                //失败
-                logger.debug("UfileServiceImpl.abortMultiUpload");
-                this.client.abortMultiUpload(upload_info).execute();
-            } else {
+            boolean success = false;
+            try {
+                List<MultiUploadPartState> partStates = multiUpload(input, upload_info, blobSize);
                 //成功
                 logger.debug("UfileServiceImpl.finishMultiUpload");
-                this.client.finishMultiUpload(upload_info, partStates).execute();
+                execute(Operation.MULTIPART_COMPLETE, 0, () -> this.client.finishMultiUpload(upload_info, partStates).execute());
+                success = true;
+            } finally {
+                if (success == false) {
+                    //失败，快照不会用同一个对象名重试，中断上传操作，避免分片一直留在ufile
+                    logger.debug("UfileServiceImpl.abortMultiUpload, upload of [{}] failed", key);
+                    abortQuietly(upload_info);
+                }
+                if (entry != null) {
+                    journal.remove(entry);
+                }
             }
-            return;
         }
     }
 
-    public List<MultiUploadPartState> multiUpload(InputStream is, MultiUploadInfo upload_info) throws UfileClientException {
-        logger.debug("UfileServiceImpl.multiUpload, bucket:[{}], key:[{}]", upload_info.getBucket(), upload_info.getKeyName());
-        List<MultiUploadPartState> part_states = null;
-        byte[] buffer = new byte[upload_info.getBlkSize()];
+    private void abortQuietly(MultiUploadInfo upload_info) {
+        try {
+            execute(Operation.MULTIPART_ABORT, 0, () -> this.client.abortMultiUpload(upload_info).execute());
+        } catch (UfileServerException | UfileClientException e) {
+            logger.warn("abort multipart upload of [{}] failed: [{}]", upload_info.getKeyName(), e.getMessage());
+        }
+    }
+
+    public List<MultiUploadPartState> multiUpload(InputStream is, MultiUploadInfo upload_info, long blobSize)
+            throws UfileServerException, UfileClientException {
+        int blkSize = upload_info.getBlkSize();
+        // 分片大小由ufile决定，并发数按分片数和该仓库观察到的吞吐选择
+        int concurrency = partConcurrency.concurrency((int) ((blobSize + blkSize - 1) / blkSize));
+        logger.debug("UfileServiceImpl.multiUpload, bucket:[{}], key:[{}], blkSize:[{}], concurrency:[{}]",
+                upload_info.getBucket(), upload_info.getKeyName(), blkSize, concurrency);
+        UfileBufferPool pool = partBufferPools.computeIfAbsent(blkSize,
+                size -> new UfileBufferPool(size, maxConcurrentParts + 1));
+        // 同时在途的分片数，每个在途分片占用一个缓冲区
+        Semaphore window = new Semaphore(concurrency);
+        long startNanos = System.nanoTime();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Future<MultiUploadPartState>> parts = new ArrayList<>();
+        boolean success = false;
         try {
-            int len = 0;
+            long remaining = blobSize;
             int count = 0;
-            part_states = new ArrayList<>();
-            // 将数据根据state中指定的大小进行分片
-            while ((len = is.read(buffer)) > 0) {
+            // 将数据根据state中指定的大小进行分片，边读边并发上传
+            while (remaining > 0 && failure.get() == null) {
+                window.acquire();
+                byte[] buffer = pool.acquire();
+                int expected = (int) Math.min(blkSize, remaining);
+                UfileEtag etag = verifyChecksums ? new UfileEtag() : null;
+                int len;
+                try {
+                    len = UfileBufferPool.fill(is, buffer, expected, etag);
+                } catch (IOException e) {
+                    pool.release(buffer);
+                    window.release();
+                    throw e;
+                }
+                if (len != expected) {
+                    pool.release(buffer);
+                    window.release();
+                    throw new UfileClientException("unexpected end of stream for [" + upload_info.getKeyName()
+                            + "], [" + (remaining - len) + "] bytes missing");
+                }
+                remaining -= len;
                 final int index = count++;
-                byte[] sendData = Arrays.copyOf(buffer, len);
-                int uploadCount = 0;
-
-                // 可支持重试3次上传
-                while (uploadCount < 3) {
+                final String partEtag = etag == null ? null : etag.etag();
+                final byte[] sendData = len == buffer.length ? buffer : Arrays.copyOf(buffer, len);
+                parts.add(partExecutor.submit(() -> {
                     try {
-                        MultiUploadPartState part_state = this.client
-                                .multiUploadPart(upload_info, sendData, index)
-                                .setOnProgressListener(null)
-                                .execute();
-                        if (part_state == null) {
-                            uploadCount++;
-                            continue;
+                        //上传已经失败，排队中的分片不再发出
+                        if (failure.get() != null) {
+                            throw new UfileClientException("upload of [" + upload_info.getKeyName() + "] was abandoned");
                         }
-
-                        part_states.add(part_state);
-                        break;
-                    } catch (UfileServerException e) {
-                        // 尝试次数+1
-                        uploadCount++;
-                        logger.error("mput upload fail, retry times {}. Exception info {}", uploadCount, e.getMessage());
+                        return SocketAccess.doPrivilegedException(() -> uploadPart(upload_info, sendData, index, partEtag));
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        pool.release(buffer);
+                        window.release();
                     }
-                }
-                if (uploadCount == 3)
-                    return null;
+                }));
             }
+            // 按分片序号顺序收集结果
+            List<MultiUploadPartState> part_states = new ArrayList<>(parts.size());
+            for (Future<MultiUploadPartState> part : parts) {
+                part_states.add(part.get());
+            }
+            partConcurrency.onUpload(concurrency, blobSize, System.nanoTime() - startNanos);
+            success = true;
             return part_states;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UfileServerException) {
+                throw (UfileServerException) cause;
+            } else if (cause instanceof UfileClientException) {
+                throw (UfileClientException) cause;
+            }
+            throw new UfileClientException(cause.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UfileClientException("interrupted while uploading [" + upload_info.getKeyName() + "]");
         } catch (IOException e) {
             throw new UfileClientException(e.getMessage());
         } finally {
-            FileUtil.close(is);
+            if (success == false) {
+                failure.compareAndSet(null, new UfileClientException("upload of [" + upload_info.getKeyName() + "] failed"));
+                awaitParts(parts);
+            }
+        }
+    }
+
+    //等待所有分片请求结束，之后才能中断上传和删除记录
+    private static void awaitParts(List<Future<MultiUploadPartState>> parts) {
+        boolean interrupted = false;
+        for (Future<MultiUploadPartState> part : parts) {
+            while (true) {
+                try {
+                    part.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //上传单个分片，失败或校验不一致时只重传该分片
+    private MultiUploadPartState uploadPart(MultiUploadInfo upload_info, byte[] sendData, int index, String expectedEtag)
+            throws UfileServerException, UfileClientException {
+        return withRetries("part [" + index + "] of [" + upload_info.getKeyName() + "]", () -> {
+            MultiUploadPartState part_state = execute(Operation.MULTIPART_PART, sendData.length, () -> this.client
+                    .multiUploadPart(upload_info, sendData, index)
+                    .setOnProgressListener(null)
+                    .execute());
+            if (part_state == null) {
+                throw new UfileServerException("upload part [" + index + "] of [" + upload_info.getKeyName() + "] returned no state");
+            }
+            verifyEtag(upload_info.getKeyName() + "#" + index, expectedEtag, part_state.geteTag());
+            return part_state;
+        });
+    }
+
+    //ufile对收到的数据计算etag，与本地边读边算的etag比较；不一致时按可重试的服务端错误处理
+    private static void verifyEtag(String what, String expectedEtag, String reportedEtag) throws UfileServerException {
+        if (expectedEtag != null && UfileEtag.matches(expectedEtag, reportedEtag) == false) {
+            throw new UfileServerException("checksum mismatch for [" + what + "], sent etag [" + expectedEtag
+                    + "] but ufile reported [" + reportedEtag + "]");
+        }
+    }
+
+    //执行请求，客户端异常和可重试的服务端错误按指数退避重试
+    private <T> T withRetries(String what, UfileCall<T> call) throws UfileServerException, UfileClientException {
+        for (int attempt = 0; ; attempt++) {
+            Exception lastException;
+            try {
+                return call.execute();
+            } catch (UfileServerException e) {
+                UfileError error = UfileError.of(e);
+                if (error.isRetryable() == false) {
+                    logger.error("upload of {} failed, not retrying [{}]. Exception info {}", what, error, e.getMessage());
+                    throw e;
+                }
+                lastException = e;
+            } catch (UfileClientException e) {
+                //客户端异常多为网络错误，可以重试
+                lastException = e;
+            }
+            if (attempt >= maxRetries) {
+                logger.error("upload of {} failed, giving up after {} attempts. Exception info {}",
+                        what, attempt + 1, lastException.getMessage());
+                if (lastException instanceof UfileClientException) {
+                    throw (UfileClientException) lastException;
+                }
+                throw (UfileServerException) lastException;
+            }
+            logger.warn("upload of {} failed, retry times {}. Exception info {}", what, attempt + 1, lastException.getMessage());
+            try {
+                stats.retry();
+                backoff.pause(attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UfileClientException("interrupted while retrying " + what);
+            }
         }
     }
 
@@ -201,36 +614,37 @@ public class UfileServiceImpl implements UfileService {
     @Override
     public void deleteObject(String bucketName, String key) throws UfileServerException, UfileClientException {
         logger.debug("UfileServiceImpl.deleteObject, bucket:[{}], key:[{}]", bucketName, key);
-        this.client.deleteObject(key, bucketName).execute();
+        execute(Operation.DELETE, 0, () -> this.client.deleteObject(key, bucketName).execute());
     }
 
-    //复制文件
+    //复制文件，由ufile在服务端完成，数据不经过本节点
     @Override
     public void copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) throws UfileServerException, UfileClientException {
         logger.debug("UfileServiceImpl.copyObject, src_bucket:[{}], src_key:[{}], dst_bucket:[{}], dst_key:[{}]", sourceBucketName, sourceKey, destinationBucketName, destinationKey);
+        execute(Operation.COPY, 0, () -> this.client.copyObject(sourceBucketName, sourceKey)
+                .copyTo(destinationBucketName, destinationKey)
+                .execute());
+    }
 
-        String url = this.client.getDownloadUrlFromPrivateBucket(sourceKey, sourceBucketName, 30 * 60)
-                .createUrl();
-
-        DownloadStreamBean down_bean;
-        try {
-            down_bean = this.client.getStream(url).execute();
-        } catch (UfileServerException | UfileClientException e) {
-            logger.error("download exception [{}]", e.getMessage());
-            throw e;
-        }
-        try {
-            this.putObject(destinationBucketName, destinationKey, down_bean.getInputStream(), down_bean.getContentLength());
-//            String mine_type = down_bean.getContentType();
-//            this.client.putObject(down_bean.getInputStream(), mine_type).nameAs(destinationKey).toBucket(destinationBucketName).execute();
-        } catch (UfileServerException | UfileClientException e) {
-            logger.error("upload exception [{}]", e.getMessage());
-            throw e;
-        }
-        return;
+    //重命名文件，只修改元数据
+    @Override
+    public void renameObject(String bucketName, String sourceKey, String destinationKey, boolean overwrite) throws UfileServerException, UfileClientException {
+        logger.debug("UfileServiceImpl.renameObject, bucket:[{}], src_key:[{}], dst_key:[{}], overwrite:[{}]", bucketName, sourceKey, destinationKey, overwrite);
+        execute(Operation.RENAME, 0, () -> this.client.renameObject(bucketName, sourceKey)
+                .isRenamedTo(destinationKey)
+                .isForcedToCover(overwrite)
+                .execute());
     }
 
     @Override
     public void shutdown() {
+        if (closed.compareAndSet(false, true)) {
+            logger.debug("UfileServiceImpl.shutdown");
+            if (downloadUrlCache != null) {
+                downloadUrlCache.invalidateAll();
+            }
+            clientReference.release();
+            statsRegistry.unregister(stats);
+        }
     }
 }
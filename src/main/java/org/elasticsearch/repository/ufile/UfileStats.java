@@ -0,0 +1,121 @@
+package org.elasticsearch.repository.ufile;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters of one repository on this node: per operation the number of requests, failures,
+ * bytes transferred and a latency histogram, plus the number of retries and throttled requests.
+ * Latency is the time until UFile answered; for downloads that is the time to the first byte.
+ */
+final class UfileStats implements ToXContentFragment {
+
+    enum Operation {
+        HEAD, LIST, GET, RANGE_GET, PUT, MULTIPART_INIT, MULTIPART_PART, MULTIPART_COMPLETE, MULTIPART_ABORT,
+        DELETE, COPY, RENAME;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    //超过1小时的延迟按1小时记录
+    private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_FIELDS = {"p50", "p90", "p99", "p999"};
+
+    private final String repository;
+    private final Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    UfileStats(String repository) {
+        this.repository = repository;
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationStats());
+        }
+    }
+
+    String repository() {
+        return repository;
+    }
+
+    /**
+     * Records one request.
+     *
+     * @param bytes     the payload sent or received, {@code 0} if not known yet
+     * @param tookNanos the time until UFile answered
+     */
+    void record(Operation operation, long bytes, long tookNanos, boolean failed) {
+        OperationStats stats = operations.get(operation);
+        stats.count.increment();
+        if (failed) {
+            stats.errors.increment();
+        } else if (bytes > 0) {
+            stats.bytes.add(bytes);
+        }
+        stats.latency.recordValue(Math.min(MAX_LATENCY_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(tookNanos))));
+    }
+
+    //下载的字节数在响应返回后才知道
+    void addBytes(Operation operation, long bytes) {
+        if (bytes > 0) {
+            operations.get(operation).bytes.add(bytes);
+        }
+    }
+
+    void retry() {
+        retries.increment();
+    }
+
+    void throttled() {
+        throttled.increment();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(repository);
+        builder.field("retries", retries.sum());
+        builder.field("throttled", throttled.sum());
+        builder.startObject("operations");
+        for (Map.Entry<Operation, OperationStats> entry : operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            long count = stats.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            builder.startObject(entry.getKey().key());
+            builder.field("count", count);
+            builder.field("errors", stats.errors.sum());
+            builder.field("bytes", stats.bytes.sum());
+            builder.startObject("latency_micros");
+            ConcurrentHistogram latency = stats.latency.copy();
+            builder.field("min", latency.getMinValue());
+            builder.field("mean", latency.getMean());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                builder.field(PERCENTILE_FIELDS[i], latency.getValueAtPercentile(PERCENTILES[i]));
+            }
+            builder.field("max", latency.getMaxValue());
+            builder.endObject();
+            builder.endObject();
+        }
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+
+    private static final class OperationStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final ConcurrentHistogram latency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 2);
+    }
+}
@@ -0,0 +1,54 @@
+package org.elasticsearch.repository.ufile;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link UfileStats} of the repositories that are open on this node, by repository name.
+ */
+final class UfileStatsRegistry {
+
+    private final Map<String, Entry> stats = new HashMap<>();
+
+    /**
+     * Returns the stats of a newly opened repository. Several instances of a repository may be open at
+     * once, e.g. the temporary one elasticsearch creates to verify a PUT of the repository, or a new
+     * instance after a settings change that is opened before the old one is closed. They share one
+     * {@link UfileStats}, which is dropped when the last of them unregisters.
+     */
+    synchronized UfileStats register(String repository) {
+        Entry entry = stats.computeIfAbsent(repository, name -> new Entry(new UfileStats(name)));
+        entry.refCount++;
+        return entry.stats;
+    }
+
+    synchronized void unregister(UfileStats repositoryStats) {
+        Entry entry = stats.get(repositoryStats.repository());
+        if (entry != null && entry.stats == repositoryStats && --entry.refCount == 0) {
+            stats.remove(repositoryStats.repository());
+        }
+    }
+
+    synchronized UfileStats get(String repository) {
+        Entry entry = stats.get(repository);
+        return entry == null ? null : entry.stats;
+    }
+
+    synchronized Map<String, UfileStats> all() {
+        Map<String, UfileStats> all = new TreeMap<>();
+        for (Map.Entry<String, Entry> entry : stats.entrySet()) {
+            all.put(entry.getKey(), entry.getValue().stats);
+        }
+        return all;
+    }
+
+    private static final class Entry {
+        private final UfileStats stats;
+        private int refCount;
+
+        private Entry(UfileStats stats) {
+            this.stats = stats;
+        }
+    }
+}
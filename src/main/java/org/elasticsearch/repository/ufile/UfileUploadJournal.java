@@ -0,0 +1,127 @@
+package org.elasticsearch.repository.ufile;
+
+import cn.ucloud.ufile.api.object.multi.MultiUploadInfo;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.hash.MessageDigests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * A node-local record of the multipart uploads that are in progress, used only to clean up after a
+ * crash. An entry is written once when an upload is initialised and deleted when the upload has been
+ * completed or aborted; parts are not recorded and uploads are never resumed, since snapshot blob names
+ * are not reused. Entries still on disk when a repository is created belong to uploads that the node
+ * abandoned when it stopped, and {@link #removeOrphaned} hands them back so they can be aborted.
+ */
+final class UfileUploadJournal {
+    private static final Logger logger = LogManager.getLogger(UfileUploadJournal.class);
+
+    private static final Gson GSON = new Gson();
+
+    //本进程中进行中的上传的记录文件，同一仓库重新创建时旧实例的上传可能还未结束
+    private static final Set<Path> LIVE = ConcurrentHashMap.newKeySet();
+
+    private final Path dir;
+
+    UfileUploadJournal(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Removes every entry that no upload of this node owns, whatever its age.
+     *
+     * @return the uploads of the removed entries, which the caller should abort
+     */
+    List<MultiUploadInfo> removeOrphaned() {
+        List<MultiUploadInfo> orphaned = new ArrayList<>();
+        if (Files.isDirectory(dir) == false) {
+            return orphaned;
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            logger.warn("can not list upload journal [{}]: {}", dir, e.getMessage());
+            return orphaned;
+        }
+        for (Path file : files) {
+            if (LIVE.contains(file)) {
+                continue;
+            }
+            try {
+                String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                Header header = content.isEmpty() ? null : GSON.fromJson(content, Header.class);
+                if (header != null && header.info != null) {
+                    orphaned.add(header.info);
+                }
+                Files.deleteIfExists(file);
+            } catch (IOException | JsonParseException e) {
+                logger.warn("can not clean up upload journal [{}]: {}", file, e.getMessage());
+            }
+        }
+        return orphaned;
+    }
+
+    /**
+     * Records a freshly initialised multipart upload.
+     */
+    Entry start(String bucket, String key, MultiUploadInfo info) {
+        Path file = fileFor(bucket, key);
+        LIVE.add(file);
+        Header header = new Header();
+        header.bucket = bucket;
+        header.key = key;
+        header.info = info;
+        try {
+            Files.createDirectories(dir);
+            Files.write(file, GSON.toJson(header).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("can not write upload journal for [{}], the upload will not be cleaned up after a crash: {}",
+                    key, e.getMessage());
+        }
+        return new Entry(file);
+    }
+
+    /**
+     * Forgets an upload once it has been completed or aborted.
+     */
+    void remove(Entry entry) {
+        try {
+            Files.deleteIfExists(entry.file);
+        } catch (IOException e) {
+            logger.warn("can not delete upload journal [{}]: {}", entry.file, e.getMessage());
+        } finally {
+            LIVE.remove(entry.file);
+        }
+    }
+
+    private Path fileFor(String bucket, String key) {
+        byte[] digest = MessageDigests.sha1().digest((bucket + "/" + key).getBytes(StandardCharsets.UTF_8));
+        return dir.resolve(MessageDigests.toHexString(digest));
+    }
+
+    private static final class Header {
+        String bucket;
+        String key;
+        MultiUploadInfo info;
+    }
+
+    static final class Entry {
+        private final Path file;
+
+        private Entry(Path file) {
+            this.file = file;
+        }
+    }
+}
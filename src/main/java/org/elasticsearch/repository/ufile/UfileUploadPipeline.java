@@ -0,0 +1,143 @@
+package org.elasticsearch.repository.ufile;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Uploads small blobs in the background so that a snapshot thread does not wait for one PUT round trip
+ * per blob. {@link #submit} reads the blob into memory and returns once its PUT has been started; at most
+ * {@code maxInFlight} PUTs run at once and further submits block, before reading their blob, until one of
+ * them completes. The array that was read is uploaded as is, so the heap held by the pipeline is bounded
+ * by {@code maxInFlight} times {@code maxBlobSize}. A failed
+ * upload is kept until it is reported by {@link #await} or {@link #flush}, which callers use as barriers
+ * before anything that depends on the blob having been written.
+ */
+final class UfileUploadPipeline {
+    private static final Logger logger = LogManager.getLogger(UfileUploadPipeline.class);
+
+    private final UfileAsyncService asyncClient;
+    private final String bucket;
+    private final long maxBlobSize;
+    private final Semaphore inFlight;
+    //未完成或已失败的上传，成功后移除
+    private final ConcurrentMap<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    UfileUploadPipeline(UfileAsyncService asyncClient, String bucket, int maxInFlight, long maxBlobSize) {
+        this.asyncClient = asyncClient;
+        this.bucket = bucket;
+        this.maxBlobSize = maxBlobSize;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    boolean accepts(long blobSize) {
+        return blobSize >= 0 && blobSize <= maxBlobSize;
+    }
+
+    /**
+     * Reads the blob from {@code input} and starts uploading it. {@code onDone} runs once the upload
+     * has completed, successfully or not.
+     */
+    void submit(String key, InputStream input, long blobSize, Runnable onDone) throws IOException {
+        //同名对象的上一次上传必须先完成
+        await(key);
+        //先占名额再读数据，等待名额的调用方不占用内存
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to upload [" + key + "]");
+        }
+        //调用方返回后流会被关闭，数据必须先读入内存
+        byte[] data = new byte[(int) blobSize];
+        boolean filled = false;
+        try {
+            int read = UfileBufferPool.fill(input, data, data.length);
+            if (read != blobSize) {
+                throw new IOException("unexpected end of stream for [" + key + "], expected [" + blobSize + "] bytes but got [" + read + "]");
+            }
+            filled = true;
+        } finally {
+            if (filled == false) {
+                inFlight.release();
+            }
+        }
+        //直接上传读入的数组，每个在途上传只占用blobSize大小的内存
+        CompletableFuture<Void> upload = asyncClient.putObject(bucket, key, data);
+        pending.put(key, upload);
+        upload.whenComplete((r, e) -> {
+            inFlight.release();
+            if (e == null) {
+                pending.remove(key, upload);
+            } else {
+                logger.debug("pipelined upload of [{}] failed: {}", key, e.getMessage());
+            }
+            onDone.run();
+        });
+    }
+
+    /**
+     * Waits for the pending upload of {@code key}, if any.
+     *
+     * @throws IOException if the upload failed
+     */
+    void await(String key) throws IOException {
+        CompletableFuture<Void> upload = pending.get(key);
+        if (upload != null) {
+            waitFor(key, upload);
+        }
+    }
+
+    /**
+     * Waits for all pending uploads of keys starting with {@code prefix}.
+     *
+     * @throws IOException if any of them failed, with the other failures suppressed
+     */
+    void flush(String prefix) throws IOException {
+        IOException failure = null;
+        List<Map.Entry<String, CompletableFuture<Void>>> uploads = new ArrayList<>(pending.entrySet());
+        for (Map.Entry<String, CompletableFuture<Void>> upload : uploads) {
+            if (upload.getKey().startsWith(prefix)) {
+                try {
+                    waitFor(upload.getKey(), upload.getValue());
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //失败只报告一次
+    private void waitFor(String key, CompletableFuture<Void> upload) throws IOException {
+        try {
+            upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the upload of [" + key + "]");
+        } catch (ExecutionException e) {
+            pending.remove(key, upload);
+            Throwable cause = e.getCause();
+            throw new IOException("upload of [" + key + "] failed: " + cause.getMessage(), cause);
+        }
+    }
+}
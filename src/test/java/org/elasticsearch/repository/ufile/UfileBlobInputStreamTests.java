@@ -0,0 +1,90 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link UfileBlobInputStream} reconnects from its current position when a connection fails.
+ */
+public class UfileBlobInputStreamTests extends ESTestCase {
+
+    private static final UfileBackoff NO_BACKOFF = new UfileBackoff(TimeValue.timeValueMillis(1), TimeValue.timeValueMillis(1));
+
+    private final List<long[]> requestedRanges = new ArrayList<>();
+
+    public void testReconnectsFromCurrentPosition() throws IOException {
+        byte[] data = randomByteArrayOfLength(randomIntBetween(100, 10000));
+        int failAt = randomIntBetween(1, data.length - 1);
+        //初始连接读到failAt就提前结束
+        InputStream initial = new ByteArrayInputStream(data, 0, failAt);
+        try (InputStream in = new UfileBlobInputStream("key", initial, 0, data.length, opener(data, -1), 3, NO_BACKOFF)) {
+            assertArrayEquals(data, readAll(in));
+        }
+        assertEquals(1, requestedRanges.size());
+        assertArrayEquals(new long[]{failAt, data.length}, requestedRanges.get(0));
+    }
+
+    public void testReconnectsWithinRange() throws IOException {
+        byte[] data = randomByteArrayOfLength(10000);
+        int start = randomIntBetween(0, 4000);
+        int end = randomIntBetween(6000, data.length);
+        //每个连接只读出100字节就断开
+        try (InputStream in = new UfileBlobInputStream("key", null, start, end, opener(data, 100), 1, NO_BACKOFF)) {
+            assertArrayEquals(Arrays.copyOfRange(data, start, end), readAll(in));
+        }
+        long expectedStart = start;
+        for (long[] range : requestedRanges) {
+            assertEquals(expectedStart, range[0]);
+            assertEquals(end, range[1]);
+            expectedStart += 100;
+        }
+    }
+
+    public void testGivesUpAfterMaxRetries() throws IOException {
+        byte[] data = randomByteArrayOfLength(1000);
+        try (InputStream in = new UfileBlobInputStream("key", null, 0, data.length, opener(data, 0), 2, NO_BACKOFF)) {
+            expectThrows(IOException.class, in::read);
+        }
+        //第一次连接加两次重连
+        assertEquals(3, requestedRanges.size());
+    }
+
+    public void testSkipReopensAtTarget() throws IOException {
+        byte[] data = randomByteArrayOfLength((int) UfileBlobInputStream.SKIP_BY_RANGE_THRESHOLD * 3);
+        try (InputStream in = new UfileBlobInputStream("key", null, 0, data.length, opener(data, -1), 3, NO_BACKOFF)) {
+            assertEquals(data[0] & 0xFF, in.read());
+            long skip = UfileBlobInputStream.SKIP_BY_RANGE_THRESHOLD * 2;
+            assertEquals(skip, in.skip(skip));
+            assertEquals(data[(int) skip + 1] & 0xFF, in.read());
+        }
+        assertEquals(2, requestedRanges.size());
+        assertEquals(UfileBlobInputStream.SKIP_BY_RANGE_THRESHOLD * 2 + 1, requestedRanges.get(1)[0]);
+    }
+
+    //每个连接最多读出failAfter字节后提前结束，-1表示读到范围末尾
+    private UfileParallelRangeInputStream.RangeOpener opener(byte[] data, int failAfter) {
+        return (start, end) -> {
+            requestedRanges.add(new long[]{start, end});
+            long stop = failAfter < 0 ? end : Math.min(end, start + failAfter);
+            return new ByteArrayInputStream(data, (int) start, (int) (stop - start));
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[randomIntBetween(1, 512)];
+        int n;
+        while ((n = in.read(b)) != -1) {
+            out.write(b, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,62 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks {@link UfileEtag} against ETags computed with the documented UFile algorithm.
+ */
+public class UfileEtagTests extends ESTestCase {
+
+    public void testEmpty() {
+        //空对象的etag，与ufile（以及同样算法的七牛）返回的一致
+        assertEquals("Fto5o-5ea0sNMlW_75VgGJCv2AcJ", UfileEtag.of(new byte[0], 0, 0));
+    }
+
+    public void testSingleBlock() {
+        byte[] data = "hello world".getBytes(StandardCharsets.UTF_8);
+        assertEquals("FiqubDXJT8-0FdvpX0CLnOke6Ebt", UfileEtag.of(data, 0, data.length));
+    }
+
+    public void testExactlyOneBlock() {
+        assertEquals("Fgd8eREZ4FXnoK5eUHCJo_kRSDb1", etagInChunks(pattern(UfileEtag.BLOCK_SIZE)));
+    }
+
+    public void testMultipleBlocks() {
+        assertEquals("lgV4TNEnA2AXSRVyDqVW4bohMKad", etagInChunks(pattern(UfileEtag.BLOCK_SIZE + 1)));
+        assertEquals("lsRQ8qpKv5o9hnpjLdh5Ie8j2naP", etagInChunks(pattern(2 * UfileEtag.BLOCK_SIZE + 100)));
+        assertEquals("lsCVE24-Immdd6zm-ffVVhsWYcDG", etagInChunks(new byte[2 * UfileEtag.BLOCK_SIZE]));
+    }
+
+    public void testChunkingDoesNotMatter() {
+        byte[] data = pattern(UfileEtag.BLOCK_SIZE + randomIntBetween(1, 1 << 20));
+        assertEquals(UfileEtag.of(data, 0, data.length), etagInChunks(data));
+    }
+
+    public void testMatches() {
+        assertTrue(UfileEtag.matches("FiqubDXJT8-0FdvpX0CLnOke6Ebt", "\"FiqubDXJT8-0FdvpX0CLnOke6Ebt\""));
+        assertTrue(UfileEtag.matches("FiqubDXJT8-0FdvpX0CLnOke6Ebt", null));
+        assertFalse(UfileEtag.matches("FiqubDXJT8-0FdvpX0CLnOke6Ebt", "Fto5o-5ea0sNMlW_75VgGJCv2AcJ"));
+    }
+
+    //按随机大小分段计算，覆盖跨块边界的情况
+    private static String etagInChunks(byte[] data) {
+        UfileEtag etag = new UfileEtag();
+        int off = 0;
+        while (off < data.length) {
+            int len = Math.min(data.length - off, randomIntBetween(1, 3 << 20));
+            etag.update(data, off, len);
+            off += len;
+        }
+        return etag.etag();
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        return data;
+    }
+}
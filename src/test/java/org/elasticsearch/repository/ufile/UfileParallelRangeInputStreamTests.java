@@ -0,0 +1,201 @@
+package org.elasticsearch.repository.ufile;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link UfileParallelRangeInputStream} returns the object in order across skips, and that
+ * abandoned ranges close their streams and hand their buffers back to the pool.
+ */
+public class UfileParallelRangeInputStreamTests extends ESTestCase {
+
+    private static final int RANGE_SIZE = 1024;
+    private static final int POOLED = 16;
+
+    private ExecutorService executor;
+    private UfileBufferPool pool;
+    private Set<byte[]> pooledBuffers;
+    private final List<TrackedStream> opened = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(4);
+        pool = new UfileBufferPool(RANGE_SIZE, POOLED);
+        //预先放入缓冲区，之后可以按引用确认它们都已归还
+        pooledBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < POOLED; i++) {
+            pooledBuffers.add(new byte[RANGE_SIZE]);
+        }
+        for (byte[] buffer : pooledBuffers) {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testReadsAllRanges() throws Exception {
+        byte[] data = randomByteArrayOfLength(RANGE_SIZE * 5 + randomIntBetween(1, RANGE_SIZE - 1));
+        TrackedStream first = new TrackedStream(new ByteArrayInputStream(data));
+        try (InputStream in = stream(data, first, randomIntBetween(1, 4), null)) {
+            assertArrayEquals(data, readAll(in));
+        }
+        awaitTasks();
+        assertEquals(1, first.closes.get());
+        assertAllClosed();
+        assertBuffersReturned();
+    }
+
+    public void testSkipAcrossRanges() throws Exception {
+        byte[] data = randomByteArrayOfLength(RANGE_SIZE * 12);
+        TrackedStream first = new TrackedStream(new ByteArrayInputStream(data));
+        try (InputStream in = stream(data, first, 2, null)) {
+            byte[] head = new byte[100];
+            assertEquals(100, in.read(head));
+            //跳过在途的范围，从目标所在的范围重新开始
+            long target = RANGE_SIZE * 7 + 10;
+            assertEquals(target - 100, in.skip(target - 100));
+            byte[] next = new byte[RANGE_SIZE];
+            int read = 0;
+            while (read < next.length) {
+                read += in.read(next, read, next.length - read);
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, (int) target, (int) target + RANGE_SIZE), next);
+            //跳到末尾
+            assertEquals(data.length - target - RANGE_SIZE, in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+        }
+        awaitTasks();
+        assertEquals(1, first.closes.get());
+        assertAllClosed();
+        assertBuffersReturned();
+    }
+
+    public void testCloseAbandonsInFlightRanges() throws Exception {
+        byte[] data = randomByteArrayOfLength(RANGE_SIZE * 8);
+        CountDownLatch opened = new CountDownLatch(3);
+        CountDownLatch unblock = new CountDownLatch(1);
+        TrackedStream first = new TrackedStream(new ByteArrayInputStream(data));
+        InputStream in = stream(data, first, 4, new Gate(opened, unblock));
+        assertEquals(data[0] & 0xFF, in.read());
+        //其他范围的请求都在读取中
+        assertTrue(opened.await(10, TimeUnit.SECONDS));
+        in.close();
+        unblock.countDown();
+        awaitTasks();
+        assertEquals(1, first.closes.get());
+        assertAllClosed();
+        assertBuffersReturned();
+    }
+
+    private InputStream stream(byte[] data, InputStream first, int window, Gate gate) {
+        return new UfileParallelRangeInputStream("key", first, data.length, window, executor, pool, (start, end) -> {
+            TrackedStream s = new TrackedStream(new ByteArrayInputStream(data, (int) start, (int) (end - start)), gate);
+            opened.add(s);
+            return s;
+        });
+    }
+
+    //等待所有范围任务结束，包括被放弃的
+    private void awaitTasks() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private void assertAllClosed() {
+        synchronized (opened) {
+            for (TrackedStream s : opened) {
+                assertEquals(1, s.closes.get());
+            }
+        }
+    }
+
+    //池中应当恰好是预先放入的那些缓冲区
+    private void assertBuffersReturned() {
+        for (int i = 0; i < POOLED; i++) {
+            assertTrue("buffer " + i + " was not returned to the pool", pooledBuffers.remove(pool.acquire()));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[randomIntBetween(1, 3000)];
+        int n;
+        while ((n = in.read(b)) != -1) {
+            out.write(b, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Holds the first read of every opened range until released.
+     */
+    private static final class Gate {
+        private final CountDownLatch opened;
+        private final CountDownLatch unblock;
+
+        private Gate(CountDownLatch opened, CountDownLatch unblock) {
+            this.opened = opened;
+            this.unblock = unblock;
+        }
+
+        void await() {
+            opened.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static final class TrackedStream extends FilterInputStream {
+        private final AtomicInteger closes = new AtomicInteger();
+        private Gate gate;
+
+        private TrackedStream(InputStream in) {
+            this(in, null);
+        }
+
+        private TrackedStream(InputStream in, Gate gate) {
+            super(in);
+            this.gate = gate;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (gate != null) {
+                Gate g = gate;
+                gate = null;
+                g.await();
+            }
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closes.incrementAndGet();
+            super.close();
+        }
+    }
+}